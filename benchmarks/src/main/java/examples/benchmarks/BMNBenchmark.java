@@ -0,0 +1,144 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.benchmarks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.kave.commons.model.naming.codeelements.IMemberName;
+import cc.kave.commons.model.naming.types.ITypeName;
+import cc.kave.rsse.calls.IModelStore;
+import cc.kave.rsse.calls.UsageMining;
+import cc.kave.rsse.calls.mining.FeatureExtractor;
+import cc.kave.rsse.calls.mining.Options;
+import cc.kave.rsse.calls.model.usages.IUsage;
+import cc.kave.rsse.calls.recs.bmn.BMNModel;
+import cc.kave.rsse.calls.recs.bmn.BMNRecommender;
+import cc.kave.rsse.calls.utils.OptionsBuilder;
+import cc.kave.rsse.calls.utils.json.JsonUtilsCcKaveRsseCalls;
+import examples.rsse.calls.MappedBMNModel;
+import examples.rsse.calls.MappedBMNModelSource;
+import examples.rsse.calls.MappedBMNRecommender;
+
+/**
+ * Measures mining a {@link BMNModel} for a single type and querying it, both
+ * with the {@link BMNRecommender} and with the bit-parallel
+ * {@link MappedBMNRecommender}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BMNBenchmark {
+
+	@Param({ "2000" })
+	public int numCtxs;
+
+	// without pruning of rare features, the tables get much larger
+	@Param({ "5", "1" })
+	public int atLeast;
+
+	private Options opts;
+	private List<IUsage> usages;
+	private IUsage query;
+	private BMNRecommender rec;
+	private MappedBMNRecommender mappedRec;
+
+	static {
+		// the mapped format stores the features as Json, the adapters can only be
+		// registered once per JVM
+		JsonUtilsCcKaveRsseCalls.registerJsonAdapters();
+	}
+
+	@Setup
+	public void setup() {
+		// same options as in RunMe
+		opts = OptionsBuilder.bmn().cCtx(true).mCtx(true).def(true).calls(true).params(true).members(true)
+				.atLeast(atLeast).get();
+
+		ITypeName t = Fixtures.apiType(1);
+		usages = new Fixtures(1).usagesOf(t, numCtxs);
+		query = usages.get(0);
+
+		BMNModel model = UsageMining.mineBMN(usages, opts);
+		InMemoryModelStore store = new InMemoryModelStore();
+		store.store(t, model);
+		rec = new BMNRecommender(new FeatureExtractor(opts), store, opts);
+		mappedRec = new MappedBMNRecommender(new FeatureExtractor(opts), store, opts);
+		// decode the dictionary outside of the measurement
+		mappedRec.query(query);
+	}
+
+	@Benchmark
+	public BMNModel mine() {
+		return UsageMining.mineBMN(usages, opts);
+	}
+
+	@Benchmark
+	public Set<Pair<IMemberName, Double>> query() {
+		return rec.query(query);
+	}
+
+	@Benchmark
+	public Set<Pair<IMemberName, Double>> queryBitParallel() {
+		return mappedRec.query(query);
+	}
+
+	private static class InMemoryModelStore implements IModelStore<BMNModel>, MappedBMNModelSource {
+
+		private final Map<ITypeName, BMNModel> models = new HashMap<>();
+		private final Map<ITypeName, MappedBMNModel> mappedModels = new HashMap<>();
+
+		@Override
+		public void store(ITypeName t, BMNModel m) {
+			models.put(t, m);
+			mappedModels.put(t, MappedBMNModel.of(m));
+		}
+
+		@Override
+		public boolean hasModel(ITypeName t) {
+			return models.containsKey(t);
+		}
+
+		@Override
+		public BMNModel getModel(ITypeName t) {
+			return models.get(t);
+		}
+
+		@Override
+		public MappedBMNModel getMappedModel(ITypeName t) {
+			return mappedModels.get(t);
+		}
+	}
+}
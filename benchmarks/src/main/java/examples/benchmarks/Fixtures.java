@@ -0,0 +1,187 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import cc.kave.commons.model.events.CommandEvent;
+import cc.kave.commons.model.events.IDEEvent;
+import cc.kave.commons.model.events.completionevents.CompletionEvent;
+import cc.kave.commons.model.events.completionevents.Context;
+import cc.kave.commons.model.events.completionevents.Proposal;
+import cc.kave.commons.model.events.completionevents.ProposalSelection;
+import cc.kave.commons.model.events.completionevents.TerminationState;
+import cc.kave.commons.model.naming.Names;
+import cc.kave.commons.model.naming.codeelements.IMethodName;
+import cc.kave.commons.model.naming.types.ITypeName;
+import cc.kave.commons.model.ssts.impl.SST;
+import cc.kave.commons.model.ssts.impl.SSTUtil;
+import cc.kave.commons.model.ssts.impl.declarations.MethodDeclaration;
+import cc.kave.commons.model.typeshapes.TypeHierarchy;
+import cc.kave.commons.model.typeshapes.TypeShape;
+import cc.kave.commons.utils.io.WritingArchive;
+import cc.kave.rsse.calls.UsageExtractor;
+import cc.kave.rsse.calls.model.usages.IUsage;
+
+/**
+ * Generates synthetic, but realistically shaped inputs for the benchmarks. All
+ * fixtures are derived from a fixed seed, so repeated runs measure the same
+ * work.
+ */
+public class Fixtures {
+
+	private static final int NUM_API_TYPES = 20;
+	private static final int NUM_API_METHODS = 12;
+
+	private final Random rnd;
+
+	public Fixtures(long seed) {
+		rnd = new Random(seed);
+	}
+
+	public List<Context> contexts(int num, int methodsPerCtx, int callsPerMethod) {
+		List<Context> ctxs = new LinkedList<>();
+		for (int i = 0; i < num; i++) {
+			ctxs.add(context(i, methodsPerCtx, callsPerMethod));
+		}
+		return ctxs;
+	}
+
+	/*
+	 * a class with a number of methods, each of which declares a few variables of
+	 * (partially generic) API types and calls methods on them
+	 */
+	public Context context(int id, int numMethods, int callsPerMethod) {
+		ITypeName encType = Names.newType("Fixture.N%d.C%d, Fixture, 1.0.0.0", id % 7, id);
+
+		SST sst = new SST();
+		sst.setEnclosingType(encType);
+		for (int m = 0; m < numMethods; m++) {
+			IMethodName mName = Names.newMethod("[%s] [%s].M%d()", voidType(), encType.getIdentifier(), m);
+			MethodDeclaration md = new MethodDeclaration(mName);
+			md.setEntryPoint(true);
+			for (int c = 0; c < callsPerMethod; c++) {
+				String var = "v" + c;
+				ITypeName apiType = apiType(rnd.nextInt(NUM_API_TYPES));
+				md.getBody().add(SSTUtil.declare(var, apiType));
+				md.getBody().add(SSTUtil.invStmt(var, apiMethod(apiType, rnd.nextInt(NUM_API_METHODS))));
+			}
+			sst.getMethods().add(md);
+		}
+
+		TypeShape ts = new TypeShape();
+		ts.setTypeHierarchy(new TypeHierarchy(encType).setExtends(new TypeHierarchy(apiType(0))));
+
+		Context ctx = new Context();
+		ctx.setSST(sst);
+		ctx.setTypeShape(ts);
+		return ctx;
+	}
+
+	public List<IDEEvent> events(int num) {
+		List<IDEEvent> events = new LinkedList<>();
+		for (int i = 0; i < num; i++) {
+			// roughly one in ten events is a completion
+			if (i % 10 == 0) {
+				events.add(completionEvent(i));
+			} else {
+				events.add(commandEvent(i));
+			}
+		}
+		return events;
+	}
+
+	public CommandEvent commandEvent(int id) {
+		CommandEvent e = new CommandEvent();
+		initBasics(e, id);
+		e.CommandId = "{5EFC7975-14BC-11CF-9B2B-00AA00573819}:" + id + ":Edit.Copy";
+		return e;
+	}
+
+	public CompletionEvent completionEvent(int id) {
+		CompletionEvent e = new CompletionEvent();
+		initBasics(e, id);
+		e.context = context(id, 3, 4);
+
+		ITypeName t = apiType(rnd.nextInt(NUM_API_TYPES));
+		for (int m = 0; m < NUM_API_METHODS; m++) {
+			Proposal p = new Proposal();
+			p.Name = apiMethod(t, m);
+			e.proposalCollection.add(p);
+		}
+		e.selections.add(new ProposalSelection(e.proposalCollection.get(rnd.nextInt(NUM_API_METHODS))));
+		e.terminatedState = TerminationState.Applied;
+		return e;
+	}
+
+	private void initBasics(IDEEvent e, int id) {
+		e.IDESessionUUID = "session-" + (id / 100);
+		e.KaVEVersion = "0.1010-Default";
+		e.TriggeredAt = ZonedDateTime.parse("2016-05-09T10:00:00+02:00").plusSeconds(id);
+	}
+
+	public List<IUsage> usages(int numCtxs) {
+		List<IUsage> usages = new LinkedList<>();
+		for (Context ctx : contexts(numCtxs, 3, 4)) {
+			usages.addAll(new UsageExtractor(ctx).getUsages());
+		}
+		return usages;
+	}
+
+	public List<IUsage> usagesOf(ITypeName t, int numCtxs) {
+		List<IUsage> res = new LinkedList<>();
+		for (IUsage u : usages(numCtxs)) {
+			if (u.getType().equals(t)) {
+				res.add(u);
+			}
+		}
+		return res;
+	}
+
+	public static <T> File writeZip(Iterable<T> entries) throws IOException {
+		File zip = Files.createTempFile("kave-benchmark-", ".zip").toFile();
+		zip.delete();
+		zip.deleteOnExit();
+		WritingArchive wa = new WritingArchive(zip);
+		wa.addAll(entries);
+		wa.close();
+		return zip;
+	}
+
+	/*
+	 * the first types are generic, so type erasure has something to do
+	 */
+	public static ITypeName apiType(int i) {
+		if (i % 4 == 0) {
+			return Names.newType("Api.N%d.G%d`1[[T -> p:string]], Api, 1.2.3.4", i % 3, i);
+		}
+		return Names.newType("Api.N%d.T%d, Api, 1.2.3.4", i % 3, i);
+	}
+
+	public static IMethodName apiMethod(ITypeName t, int i) {
+		return Names.newMethod("[%s] [%s].Call%d()", voidType(), t.getIdentifier(), i);
+	}
+
+	private static String voidType() {
+		return "p:void";
+	}
+}
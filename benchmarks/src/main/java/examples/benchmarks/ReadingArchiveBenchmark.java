@@ -0,0 +1,81 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cc.kave.commons.model.events.IDEEvent;
+import cc.kave.commons.model.events.completionevents.Context;
+import cc.kave.commons.utils.io.IReadingArchive;
+import cc.kave.commons.utils.io.ReadingArchive;
+
+/**
+ * Measures the JSON decoding of complete zips with {@link ReadingArchive}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadingArchiveBenchmark {
+
+	@Param({ "500" })
+	public int numEntries;
+
+	private File eventZip;
+	private File contextZip;
+
+	@Setup
+	public void setup() throws IOException {
+		Fixtures f = new Fixtures(1);
+		eventZip = Fixtures.writeZip(f.events(numEntries));
+		contextZip = Fixtures.writeZip(f.contexts(numEntries / 10, 5, 6));
+	}
+
+	@Benchmark
+	public void readEvents(Blackhole bh) {
+		try (IReadingArchive ra = new ReadingArchive(eventZip)) {
+			while (ra.hasNext()) {
+				bh.consume(ra.<IDEEvent> getNext(IDEEvent.class));
+			}
+		}
+	}
+
+	@Benchmark
+	public void readContexts(Blackhole bh) {
+		try (IReadingArchive ra = new ReadingArchive(contextZip)) {
+			while (ra.hasNext()) {
+				bh.consume(ra.<Context> getNext(Context.class));
+			}
+		}
+	}
+}
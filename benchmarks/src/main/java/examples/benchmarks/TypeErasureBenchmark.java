@@ -0,0 +1,72 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.kave.commons.model.events.completionevents.Context;
+import cc.kave.commons.utils.naming.TypeErasure;
+import examples.TypeErasureCache;
+
+/**
+ * Measures {@link TypeErasure#of(Context)} for a single, medium-sized context,
+ * with and without the {@link TypeErasureCache}. The setup fails if the cache
+ * erases any of a number of fixture contexts differently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TypeErasureBenchmark {
+
+	private Context ctx;
+	private TypeErasureCache cache;
+
+	@Setup
+	public void setup() {
+		ctx = new Fixtures(1).context(0, 5, 6);
+		cache = new TypeErasureCache(1000, 0);
+
+		// a small cache, so the check also covers evicted names
+		TypeErasureCache check = new TypeErasureCache(50, 1);
+		for (Context c : new Fixtures(2).contexts(200, 3, 4)) {
+			check.of(c);
+		}
+	}
+
+	@Benchmark
+	public Context eraseContext() {
+		return TypeErasure.of(ctx);
+	}
+
+	@Benchmark
+	public Context eraseContextCached() {
+		return cache.of(ctx);
+	}
+}
@@ -17,6 +17,8 @@
 
 import static cc.kave.commons.utils.io.Logger.log;
 
+import java.io.File;
+
 import cc.kave.commons.utils.io.Logger;
 import cc.kave.rsse.calls.mining.Options;
 import cc.kave.rsse.calls.utils.OptionsBuilder;
@@ -48,6 +50,15 @@ public class RunMe {
 	public static void main(String[] args) {
 		init();
 
+		// Optionally, convert all user zips once into uncompressed Json cache files
+		// with entry headers, which the event examples will then use automatically in
+		// future executions.
+		// examples.EventCache.convertAll(dirEvents);
+		// In addition, an index of all events allows the BMN evaluation to directly
+		// access the relevant events. An index that does not match the dataset anymore
+		// is ignored, so rebuild it when the dataset changes.
+		// examples.EventIndex.build(dirEvents);
+
 		// examples for BASIC DATA READING
 
 		new GettingStarted(dirEvents).run();
@@ -70,15 +81,33 @@ public class RunMe {
 		// completed, you will find all models in the "dirBmnModels" folder and you can
 		// comment it out to significantly speed-up future executions.
 		new BMNMining(opts, dirContexts, dirSortedUsages, dirBmnModels).run();
+		// Alternatively, update the models incrementally. Only new or changed zips
+		// are processed and only the affected types are mined again, so this step
+		// can be kept enabled when the dataset grows.
+		// new BMNMining(opts, dirContexts, dirSortedUsages, dirBmnModels).runIncremental();
+
+		// Exports the sorted usages and the mined models as (compressed) NDJSON for
+		// an analysis outside of Java. An aborted export continues where it stopped.
+		// examples.rsse.calls.NdjsonExporter.run(opts, dirSortedUsages, dirBmnModels, dirRoot + "export/", true);
 
 		// The evaluation assumes that you have already mined (or downloaded) BMN models
 		// and that they are contained in the "dirBmnModels" folder.
-		new BMNEvaluation(opts, dirBmnModels, dirEvents).run();
+		BMNEvaluation eval = new BMNEvaluation(opts, dirBmnModels, dirEvents);
+		eval.run();
+		// MRR, Top-K, coverage, and the same metrics per type, for later analysis
+		eval.writeReport(new File(dirRoot, "bmn-evaluation.json"));
+
+		// Replays the completion events against a local recommendation server to
+		// measure the latency of live queries.
+		// examples.rsse.calls.BMNLoadGenerator.runOffline(opts, dirBmnModels, dirEvents);
 	}
 
 	private static void init() {
 		// Logger.setDebugging(true); // might provide helpful output
 		Logger.setPrinting(true);
+		// the examples report their progress periodically, use VERBOSE to get
+		// details for every processed zip, type, or event
+		// examples.ProgressReporter.setVerbosity(examples.ProgressReporter.Verbosity.VERBOSE);
 
 		double gb = 1024 * 1024 * 1024;
 		log("Make sure that your memory limit is increased, using at least 8GB is recommended to process the KaVE datasets...  (-Xmx8G)");
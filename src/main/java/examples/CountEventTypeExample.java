@@ -3,67 +3,95 @@ package examples;
 import java.io.File;
 import java.nio.file.Paths;
 import java.util.Date;
-import java.util.Map;
 import java.util.Set;
-
-import com.google.common.collect.Maps;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
 
 import cc.kave.commons.model.events.IIDEEvent;
 import cc.kave.commons.utils.io.IReadingArchive;
-import cc.kave.commons.utils.io.ReadingArchive;
 
 public class CountEventTypeExample {
 
 	private String dir;
+	private int numThreads;
 
 	public CountEventTypeExample(String dir) {
+		this(dir, Runtime.getRuntime().availableProcessors());
+	}
+
+	public CountEventTypeExample(String dir, int numThreads) {
 		this.dir = dir;
+		this.numThreads = numThreads;
 	}
 
 	public void run() {
 		Set<String> zips = IoHelper.findAllZips(dir);
+		ProgressReporter progress = new ProgressReporter("counting events", "zips", zips.size(), "events");
+		LongAdder numEvents = progress.counter("events");
 
-		int zipTotal = zips.size();
-		int zipCount = 0;
+		// each zip is counted in its own task, the results are merged as soon as a
+		// task finishes
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		CompletionService<ZipCounts> tasks = new ExecutorCompletionService<>(pool);
 		for (String zip : zips) {
-			double perc = 100 * zipCount / (double) zipTotal;
-			zipCount++;
+			tasks.submit(() -> count(zip, numEvents));
+		}
 
-			System.out.printf("## %s, processing %s... (%d/%d, %.1f%% done)\n", new Date(), zip, zipCount, zipTotal,
-					perc);
-			File zipFile = Paths.get(dir, zip).toFile();
+		EventTypeCounter allCounts = new EventTypeCounter();
+		int zipTotal = zips.size();
+		try {
+			for (int zipCount = 1; zipCount <= zipTotal; zipCount++) {
+				ZipCounts zc = tasks.take().get();
+				progress.step();
+				if (ProgressReporter.isVerbose()) {
+					System.out.printf("## processed %s, found the following events:\n", zc.zip);
+					zc.counts.print();
+				}
 
-			int numEvents = 0;
-			Map<String, Integer> counts = Maps.newHashMap();
+				allCounts.merge(zc.counts);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+			progress.close();
+		}
 
-			int printCounter = 0;
-			try (IReadingArchive ra = new ReadingArchive(zipFile)) {
-				while (ra.hasNext()) {
-					if (printCounter++ % 100 == 0) {
-						System.out.printf(".");
-					}
-					numEvents++;
-					IIDEEvent e = ra.getNext(IIDEEvent.class);
+		System.out.printf("Found the following events in all %d zips:\n", zipTotal);
+		allCounts.print();
 
-					String key = e.getClass().getSimpleName();
-					Integer count = counts.get(key);
-					if (count == null) {
-						counts.put(key, 1);
-					} else {
-						counts.put(key, count + 1);
-					}
-				}
-			}
-			counts.put("<total>", numEvents);
+		double secs = progress.getSeconds();
+		System.out.printf("Counted %d events in %.1fs (%.1f events/s)\n", allCounts.getTotal(), secs,
+				allCounts.getTotal() / secs);
+		System.out.printf("Done (%s)\n", new Date());
+	}
 
-			System.out.printf("\nFound the following events:\n");
-			for (String key : counts.keySet()) {
-				int count = counts.get(key);
-				System.out.printf("%s: %d\n", key, count);
+	private ZipCounts count(String zip, LongAdder numEvents) {
+		File zipFile = Paths.get(dir, zip).toFile();
+		ZipCounts zc = new ZipCounts(zip);
+		try (IReadingArchive ra = IoHelper.openEvents(zipFile)) {
+			while (ra.hasNext()) {
+				IIDEEvent e = ra.getNext(IIDEEvent.class);
+				zc.counts.count(e);
+				numEvents.increment();
 			}
-			System.out.printf("\n");
 		}
+		return zc;
+	}
 
-		System.out.printf("Done (%s)\n", new Date());
+	private static class ZipCounts {
+		private final String zip;
+		private final EventTypeCounter counts = new EventTypeCounter();
+
+		private ZipCounts(String zip) {
+			this.zip = zip;
+		}
 	}
-}
\ No newline at end of file
+}
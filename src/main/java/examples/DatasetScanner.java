@@ -0,0 +1,127 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Finds all .zip files of a dataset. The top-level folders of the dataset are
+ * walked in parallel and the size of each zip is taken from the attributes
+ * that are read during the walk anyway. The zips are returned from the largest
+ * to the smallest, so parallel workers that process them in this order start
+ * the most expensive zips first and do not end up waiting for a single huge zip
+ * at the end.
+ * 
+ * Listings are not cached, every call walks the folder again, so zips that are
+ * added or changed in the meantime are always found. There is no shared state
+ * between calls: callers that need the same listing several times must keep the
+ * returned list themselves.
+ */
+public class DatasetScanner {
+
+	// largest zips first, the path breaks ties to keep the order deterministic
+	private static final Comparator<DatasetZip> LARGEST_FIRST = Comparator.comparingLong((DatasetZip z) -> z.size)
+			.reversed().thenComparing(z -> z.relativePath);
+
+	public static class DatasetZip {
+		/** path relative to the dataset folder */
+		public final String relativePath;
+		public final File file;
+		public final long size;
+		public final long lastModified;
+
+		private DatasetZip(String relativePath, File file, long size, long lastModified) {
+			this.relativePath = relativePath;
+			this.file = file;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s (%.2f MB)", relativePath, size / (1024d * 1024d));
+		}
+	}
+
+	/**
+	 * @return all zips in "dir" (recursively), ordered from the largest to the
+	 *         smallest
+	 */
+	public static List<DatasetZip> scan(String dir) {
+		return walk(Paths.get(dir).toAbsolutePath().normalize());
+	}
+
+	/**
+	 * @return the paths of all zips in "dir" relative to "dir", ordered from the
+	 *         largest to the smallest
+	 */
+	public static List<String> findZips(String dir) {
+		return scan(dir).stream().map(z -> z.relativePath).collect(Collectors.toList());
+	}
+
+	private static List<DatasetZip> walk(Path root) {
+		if (!Files.isDirectory(root)) {
+			return Collections.emptyList();
+		}
+		List<Path> children = new ArrayList<>();
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(root)) {
+			for (Path child : ds) {
+				children.add(child);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		// each top-level entry is walked in its own task, which matches the layout of
+		// both datasets (a folder per upload day or per GitHub user)
+		List<DatasetZip> zips = children.parallelStream().flatMap(child -> walk(root, child).stream())
+				.sorted(LARGEST_FIRST).collect(Collectors.toList());
+		return Collections.unmodifiableList(zips);
+	}
+
+	private static List<DatasetZip> walk(Path root, Path start) {
+		List<DatasetZip> zips = new ArrayList<>();
+		try {
+			Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (attrs.isRegularFile() && file.getFileName().toString().endsWith(".zip")) {
+						String relativePath = root.relativize(file).toString().replace(File.separatorChar, '/');
+						zips.add(new DatasetZip(relativePath, file.toFile(), attrs.size(),
+								attrs.lastModifiedTime().toMillis()));
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return zips;
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples;
+
+import static cc.kave.commons.utils.io.Logger.log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.ZonedDateTime;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import cc.kave.commons.model.events.IDEEvent;
+import cc.kave.commons.model.events.completionevents.CompletionEvent;
+import cc.kave.commons.utils.io.IReadingArchive;
+import cc.kave.commons.utils.io.ReadingArchive;
+import cc.kave.commons.utils.io.json.JsonUtils;
+
+/**
+ * Converts user zips into a length-prefixed Json cache with entry headers that
+ * is stored next to the zip ("<name>.zip.kec"). The cache is a single,
+ * uncompressed file that still contains the Json of every event:
+ * 
+ * <pre>
+ * header: int MAGIC, int VERSION, int numEntries
+ * entry:  UTF eventType, long triggeredAt (epoch millis or NO_TIME),
+ *         byte terminationState (ordinal or NO_STATE), int length, byte[length] json
+ * </pre>
+ * 
+ * Reading it avoids the inflation and the entry lookups of the zip, and the
+ * small per-entry header allows to skip unwanted events without touching their
+ * Json. The events that are read still need to be deserialized from Json. Use {@link IoHelper#openEvents(File)} to transparently prefer the cache
+ * over the original zip.
+ */
+public class EventCache {
+
+	public static final String SUFFIX = ".kec";
+
+	static final int MAGIC = 0x4B454331; // "KEC1"
+	static final int VERSION = 1;
+
+	static final long NO_TIME = Long.MIN_VALUE;
+	static final byte NO_STATE = -1;
+
+	public static void convertAll(String dir) {
+		Set<String> zips = IoHelper.findAllZips(dir);
+		try (ProgressReporter progress = new ProgressReporter("converting zips", "zips", zips.size(), "converted")) {
+			LongAdder numConverted = progress.counter("converted");
+			for (String zip : zips) {
+				File zipFile = new File(dir, zip);
+				if (!hasUpToDateCache(zipFile)) {
+					if (ProgressReporter.isVerbose()) {
+						log("converting %s ...", zipFile);
+					}
+					convert(zipFile);
+					numConverted.increment();
+				}
+				progress.step();
+			}
+		}
+	}
+
+	public static File convert(File zip) {
+		File cache = cacheFileOf(zip);
+		File tmp = new File(cache.getAbsolutePath() + ".tmp");
+		try (IReadingArchive ra = new ReadingArchive(zip);
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(ra.getNumberOfEntries());
+			while (ra.hasNext()) {
+				String json = ra.getNextPlain();
+				// the event is decoded once to extract the header information
+				IDEEvent e = JsonUtils.fromJson(json, IDEEvent.class);
+				writeEntry(out, e, json);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		try {
+			// the cache only becomes visible when it is complete
+			Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return cache;
+	}
+
+	private static void writeEntry(DataOutputStream out, IDEEvent e, String json) throws IOException {
+		out.writeUTF(e.getClass().getName());
+		ZonedDateTime triggeredAt = e.getTriggeredAt();
+		out.writeLong(triggeredAt == null ? NO_TIME : triggeredAt.toInstant().toEpochMilli());
+		byte state = NO_STATE;
+		if (e instanceof CompletionEvent && ((CompletionEvent) e).getTerminatedState() != null) {
+			state = (byte) ((CompletionEvent) e).getTerminatedState().ordinal();
+		}
+		out.writeByte(state);
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	public static File cacheFileOf(File zip) {
+		return new File(zip.getAbsolutePath() + SUFFIX);
+	}
+
+	public static boolean hasUpToDateCache(File zip) {
+		File cache = cacheFileOf(zip);
+		return cache.isFile() && cache.lastModified() >= zip.lastModified();
+	}
+}
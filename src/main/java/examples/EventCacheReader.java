@@ -0,0 +1,166 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.collect.Lists;
+
+import cc.kave.commons.assertions.Asserts;
+import cc.kave.commons.model.events.completionevents.TerminationState;
+import cc.kave.commons.utils.io.IReadingArchive;
+import cc.kave.commons.utils.io.json.JsonUtils;
+
+/**
+ * Reads a cache file that has been created by {@link EventCache}. Besides the
+ * {@link IReadingArchive} contract, the header of the upcoming entry can be
+ * inspected with the peek methods and unwanted entries can be skipped without
+ * reading their Json.
+ */
+public class EventCacheReader implements IReadingArchive {
+
+	private final DataInputStream in;
+	private final int numEntries;
+	private int numRead = 0;
+
+	private boolean isHeaderRead = false;
+	private String nextType;
+	private long nextTriggeredAt;
+	private byte nextState;
+	private int nextLength;
+
+	public EventCacheReader(File cache) {
+		Asserts.assertTrue(cache.isFile(), String.format("cache file does not exist: %s", cache.getAbsolutePath()));
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache), 1 << 16));
+			Asserts.assertTrue(in.readInt() == EventCache.MAGIC, "not an event cache: " + cache);
+			Asserts.assertTrue(in.readInt() == EventCache.VERSION, "unsupported cache version: " + cache);
+			numEntries = in.readInt();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public int getNumberOfEntries() {
+		return numEntries;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return numRead < numEntries;
+	}
+
+	/*
+	 * fully qualified class name of the upcoming event
+	 */
+	public String peekType() {
+		readHeader();
+		return nextType;
+	}
+
+	/*
+	 * trigger time of the upcoming event in epoch millis, or Long.MIN_VALUE
+	 */
+	public long peekTriggeredAt() {
+		readHeader();
+		return nextTriggeredAt;
+	}
+
+	/*
+	 * termination state of the upcoming event, null if it is not a completion
+	 */
+	public TerminationState peekTerminationState() {
+		readHeader();
+		return nextState == EventCache.NO_STATE ? null : TerminationState.values()[nextState];
+	}
+
+	public void skip() {
+		readHeader();
+		try {
+			IOUtils.skipFully(in, nextLength);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		entryDone();
+	}
+
+	@Override
+	public String getNextPlain() {
+		readHeader();
+		try {
+			byte[] bytes = new byte[nextLength];
+			in.readFully(bytes);
+			entryDone();
+			return new String(bytes, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public <T> T getNext(Type type) {
+		return JsonUtils.fromJson(getNextPlain(), type);
+	}
+
+	@Override
+	public <T> List<T> getAll(Class<T> c) {
+		List<T> res = Lists.newLinkedList();
+		while (hasNext()) {
+			res.add(getNext(c));
+		}
+		return res;
+	}
+
+	private void readHeader() {
+		Asserts.assertTrue(hasNext());
+		if (isHeaderRead) {
+			return;
+		}
+		try {
+			nextType = in.readUTF();
+			nextTriggeredAt = in.readLong();
+			nextState = in.readByte();
+			nextLength = in.readInt();
+			isHeaderRead = true;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void entryDone() {
+		isHeaderRead = false;
+		numRead++;
+	}
+
+	@Override
+	public void close() {
+		try {
+			in.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -118,4 +118,18 @@ public class EventExamples {
 			// website for the documentation of the semantics of each event...
 		}
 	}
+
+	/**
+	 * 5: Replaying events concurrently
+	 */
+	public static void replayAllEvents() {
+		// instead of writing the loop and the instanceof checks yourself, you can
+		// register a handler per event type and let our helper read all user zips
+		// in parallel. The handlers are always called from the same thread, so
+		// they do not need to be synchronized.
+		new EventReplay(DIR_USERDATA).on(CommandEvent.class, (zip, ce) -> {
+			// the event is already cast to the registered type
+			System.out.println(ce.CommandId);
+		}).run();
+	}
 }
\ No newline at end of file
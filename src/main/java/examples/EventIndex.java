@@ -0,0 +1,429 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples;
+
+import static cc.kave.commons.utils.io.Logger.log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import cc.kave.commons.assertions.Asserts;
+import cc.kave.commons.model.events.IDEEvent;
+import cc.kave.commons.model.events.completionevents.CompletionEvent;
+import cc.kave.commons.model.events.completionevents.TerminationState;
+import cc.kave.commons.utils.io.IReadingArchive;
+import cc.kave.commons.utils.io.json.JsonUtils;
+import examples.DatasetScanner.DatasetZip;
+
+/**
+ * A persistent index over all events of the interaction dataset. For each
+ * event, the index records its zip, the position of the entry in the zip, the
+ * concrete event type, the trigger time, and the termination state of
+ * completions. The fixed-size records are memory-mapped, so queries do not
+ * need to deserialize any event and matching entries can be read directly from
+ * their zip.
+ * 
+ * The size and the modification time of every zip are recorded as well. An
+ * index only describes a dataset if it {@link #matches(String)} it, i.e., if no
+ * zip has been added, removed, or changed since the index has been built.
+ * 
+ * <pre>
+ * header:  int MAGIC, int VERSION, int headerLength, byte[headerLength] tables
+ * tables:  int numZips, (UTF zip, long size, long lastModified, int firstRecord, int numRecords)*,
+ *          int numTypes, (UTF type)*
+ * records: (int zip, int entry, int type, int state, long triggeredAt)*
+ * </pre>
+ */
+public class EventIndex {
+
+	public static final String DEFAULT_FILE_NAME = "events.idx";
+
+	private static final int MAGIC = 0x4B494458; // "KIDX"
+	private static final int VERSION = 2;
+
+	private static final int RECORD_SIZE = 24;
+	private static final int NO_STATE = -1;
+	private static final long NO_TIME = Long.MIN_VALUE;
+
+	private final List<String> zips;
+	private final Map<String, Integer> zipIds = new HashMap<>();
+	private final long[] sizes;
+	private final long[] lastModified;
+	private final int[] firstRecords;
+	private final int[] numRecords;
+	private final List<String> types;
+	private final MappedByteBuffer records;
+
+	private EventIndex(List<String> zips, long[] sizes, long[] lastModified, int[] firstRecords, int[] numRecords,
+			List<String> types, MappedByteBuffer records) {
+		this.zips = zips;
+		this.sizes = sizes;
+		this.lastModified = lastModified;
+		this.firstRecords = firstRecords;
+		this.numRecords = numRecords;
+		this.types = types;
+		this.records = records;
+		for (int i = 0; i < zips.size(); i++) {
+			zipIds.put(zips.get(i), i);
+		}
+	}
+
+	public static boolean exists(String dir) {
+		return new File(dir, DEFAULT_FILE_NAME).isFile();
+	}
+
+	public static EventIndex open(String dir) {
+		return open(new File(dir, DEFAULT_FILE_NAME));
+	}
+
+	/**
+	 * Opens the index of the dataset in "dir", but only if it has the current
+	 * format and still matches the dataset.
+	 * 
+	 * @return the index, or null if no usable index exists
+	 */
+	public static EventIndex openIfUpToDate(String dir) {
+		File indexFile = new File(dir, DEFAULT_FILE_NAME);
+		if (!indexFile.isFile()) {
+			return null;
+		}
+		if (!hasCurrentVersion(indexFile)) {
+			log("event index %s has an old format and is ignored, rebuild it", indexFile);
+			return null;
+		}
+		EventIndex index = open(indexFile);
+		if (!index.matches(dir)) {
+			log("event index %s does not match the dataset anymore and is ignored, rebuild it", indexFile);
+			return null;
+		}
+		return index;
+	}
+
+	private static boolean hasCurrentVersion(File indexFile) {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+			return in.readInt() == MAGIC && in.readInt() == VERSION;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static EventIndex open(File indexFile) {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+			Asserts.assertTrue(in.readInt() == MAGIC, "not an event index: " + indexFile);
+			Asserts.assertTrue(in.readInt() == VERSION, "unsupported index version: " + indexFile);
+			int headerLength = in.readInt();
+
+			int numZips = in.readInt();
+			List<String> zips = new ArrayList<>(numZips);
+			long[] sizes = new long[numZips];
+			long[] lastModified = new long[numZips];
+			int[] firstRecords = new int[numZips];
+			int[] numRecords = new int[numZips];
+			for (int i = 0; i < numZips; i++) {
+				zips.add(in.readUTF());
+				sizes[i] = in.readLong();
+				lastModified[i] = in.readLong();
+				firstRecords[i] = in.readInt();
+				numRecords[i] = in.readInt();
+			}
+			int numTypes = in.readInt();
+			List<String> types = new ArrayList<>(numTypes);
+			for (int i = 0; i < numTypes; i++) {
+				types.add(in.readUTF());
+			}
+
+			long recordsStart = 12 + headerLength;
+			MappedByteBuffer records;
+			try (FileChannel fc = new RandomAccessFile(indexFile, "r").getChannel()) {
+				long length = fc.size() - recordsStart;
+				Asserts.assertTrue(length <= Integer.MAX_VALUE, "index is too large to be mapped: " + indexFile);
+				records = fc.map(MapMode.READ_ONLY, recordsStart, length);
+			}
+			return new EventIndex(Collections.unmodifiableList(zips), sizes, lastModified, firstRecords, numRecords,
+					types, records);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static EventIndex build(String dir) {
+		return build(dir, new File(dir, DEFAULT_FILE_NAME));
+	}
+
+	/*
+	 * decodes every event of the dataset once (or only reads the entry headers, if
+	 * an EventCache exists) and writes the index file
+	 */
+	public static EventIndex build(String dir, File indexFile) {
+		List<DatasetZip> dataset = new ArrayList<>(DatasetScanner.scan(dir));
+		dataset.sort(Comparator.comparing(z -> z.relativePath));
+		List<String> zips = new ArrayList<>();
+		for (DatasetZip z : dataset) {
+			zips.add(z.relativePath);
+		}
+		Map<String, Integer> typeIds = new LinkedHashMap<>();
+		int[] firstRecords = new int[zips.size()];
+		int[] numRecords = new int[zips.size()];
+
+		File recordsFile = new File(indexFile.getAbsolutePath() + ".records.tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(recordsFile), 1 << 16))) {
+			int numTotal = 0;
+			for (int zipId = 0; zipId < zips.size(); zipId++) {
+				firstRecords[zipId] = numTotal;
+				try (IReadingArchive ra = IoHelper.openEvents(new File(dir, zips.get(zipId)))) {
+					int entry = 0;
+					while (ra.hasNext()) {
+						writeRecord(out, zipId, entry++, ra, typeIds);
+					}
+					numRecords[zipId] = entry;
+					numTotal += entry;
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		File tmp = new File(indexFile.getAbsolutePath() + ".tmp");
+		try {
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			DataOutputStream hOut = new DataOutputStream(header);
+			hOut.writeInt(zips.size());
+			for (int i = 0; i < zips.size(); i++) {
+				hOut.writeUTF(zips.get(i));
+				hOut.writeLong(dataset.get(i).size);
+				hOut.writeLong(dataset.get(i).lastModified);
+				hOut.writeInt(firstRecords[i]);
+				hOut.writeInt(numRecords[i]);
+			}
+			hOut.writeInt(typeIds.size());
+			for (String type : typeIds.keySet()) {
+				hOut.writeUTF(type);
+			}
+			hOut.flush();
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(header.size());
+				header.writeTo(out);
+				Files.copy(recordsFile.toPath(), out);
+			}
+			Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.delete(recordsFile.toPath());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return open(indexFile);
+	}
+
+	private static void writeRecord(DataOutputStream out, int zipId, int entry, IReadingArchive ra,
+			Map<String, Integer> typeIds) throws IOException {
+		String type;
+		long triggeredAt;
+		int state;
+		if (ra instanceof EventCacheReader) {
+			EventCacheReader cr = (EventCacheReader) ra;
+			type = cr.peekType();
+			triggeredAt = cr.peekTriggeredAt();
+			TerminationState ts = cr.peekTerminationState();
+			state = ts == null ? NO_STATE : ts.ordinal();
+			cr.skip();
+		} else {
+			IDEEvent e = ra.getNext(IDEEvent.class);
+			type = e.getClass().getName();
+			ZonedDateTime t = e.getTriggeredAt();
+			triggeredAt = t == null ? NO_TIME : t.toInstant().toEpochMilli();
+			state = NO_STATE;
+			if (e instanceof CompletionEvent && ((CompletionEvent) e).getTerminatedState() != null) {
+				state = ((CompletionEvent) e).getTerminatedState().ordinal();
+			}
+		}
+
+		Integer typeId = typeIds.get(type);
+		if (typeId == null) {
+			typeId = typeIds.size();
+			typeIds.put(type, typeId);
+		}
+
+		out.writeInt(zipId);
+		out.writeInt(entry);
+		out.writeInt(typeId);
+		out.writeInt(state);
+		out.writeLong(triggeredAt);
+	}
+
+	/*
+	 * paths of all indexed zips, relative to the dataset folder
+	 */
+	public List<String> getZips() {
+		return zips;
+	}
+
+	/**
+	 * @return true, if the index contains exactly the zips of the dataset in
+	 *         "dir" and none of them has changed since the index has been built
+	 */
+	public boolean matches(String dir) {
+		List<DatasetZip> dataset = DatasetScanner.scan(dir);
+		if (dataset.size() != zips.size()) {
+			return false;
+		}
+		for (DatasetZip z : dataset) {
+			Integer zipId = zipIds.get(z.relativePath);
+			if (zipId == null || sizes[zipId] != z.size || lastModified[zipId] != z.lastModified) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getNumberOfEvents() {
+		return records.capacity() / RECORD_SIZE;
+	}
+
+	/*
+	 * find all events in all zips that match the criteria, "null" matches
+	 * everything
+	 */
+	public List<Entry> find(Class<?> type, TerminationState state, ZonedDateTime from, ZonedDateTime to) {
+		List<Entry> res = new ArrayList<>();
+		for (String zip : zips) {
+			res.addAll(find(zip, type, state, from, to));
+		}
+		return res;
+	}
+
+	public List<Entry> find(String zip, Class<?> type, TerminationState state, ZonedDateTime from,
+			ZonedDateTime to) {
+		List<Entry> res = new ArrayList<>();
+		Integer zipId = zipIds.get(zip);
+		if (zipId == null) {
+			return res;
+		}
+		int typeId = type == null ? -1 : types.indexOf(type.getName());
+		if (type != null && typeId == -1) {
+			return res;
+		}
+		int stateId = state == null ? NO_STATE : state.ordinal();
+		long fromMs = from == null ? Long.MIN_VALUE : from.toInstant().toEpochMilli();
+		long toMs = to == null ? Long.MAX_VALUE : to.toInstant().toEpochMilli();
+
+		int first = firstRecords[zipId];
+		for (int i = first; i < first + numRecords[zipId]; i++) {
+			// only absolute reads, which keeps the shared buffer thread-safe
+			int pos = i * RECORD_SIZE;
+			int recType = records.getInt(pos + 8);
+			int recState = records.getInt(pos + 12);
+			long recTime = records.getLong(pos + 16);
+
+			if (typeId != -1 && recType != typeId) {
+				continue;
+			}
+			if (state != null && recState != stateId) {
+				continue;
+			}
+			if ((from != null || to != null) && (recTime == NO_TIME || recTime < fromMs || recTime > toMs)) {
+				continue;
+			}
+			TerminationState ts = recState == NO_STATE ? null : TerminationState.values()[recState];
+			res.add(new Entry(zip, records.getInt(pos + 4), types.get(recType), recTime, ts));
+		}
+		return res;
+	}
+
+	public static class Entry {
+		public final String zip;
+		public final int entry;
+		public final String type;
+		public final long triggeredAt;
+		public final TerminationState state;
+
+		private Entry(String zip, int entry, String type, long triggeredAt, TerminationState state) {
+			this.zip = zip;
+			this.entry = entry;
+			this.type = type;
+			this.triggeredAt = triggeredAt;
+			this.state = state;
+		}
+	}
+
+	/**
+	 * Provides random access to the entries of a single zip, e.g., to read the
+	 * results of an index query.
+	 */
+	public static class ZipReader implements Closeable {
+
+		private final ZipFile zf;
+		private final List<ZipEntry> entries = new ArrayList<>();
+
+		public ZipReader(File zip) {
+			try {
+				zf = new ZipFile(zip);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			// same order as used by the ReadingArchive
+			Enumeration<? extends ZipEntry> it = zf.entries();
+			while (it.hasMoreElements()) {
+				entries.add(it.nextElement());
+			}
+		}
+
+		public <T> T read(int entry, Type type) {
+			try (InputStream in = zf.getInputStream(entries.get(entry))) {
+				return JsonUtils.fromJson(in, type);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				zf.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import cc.kave.commons.assertions.Asserts;
+import cc.kave.commons.model.events.IIDEEvent;
+import cc.kave.commons.utils.io.IReadingArchive;
+
+/**
+ * Replays all events of the interaction dataset to a set of handlers, which are
+ * registered per event type. Every user zip is read and deserialized in its own
+ * task on a pool of readers. The events are handed over through a bounded
+ * queue to the thread that has called {@link #run()}, which invokes all
+ * handlers. The handlers therefore do not need to be thread-safe, the events of
+ * one zip arrive in their original order, but the events of different zips are
+ * interleaved.
+ * 
+ * The handler of an event is resolved only once per concrete event class: the
+ * closest registered superclass is preferred over an implemented interface, if
+ * no registration matches, the fallback handler is used.
+ */
+public class EventReplay {
+
+	@FunctionalInterface
+	public interface EventHandler<T extends IIDEEvent> {
+		void handle(String zip, T event);
+	}
+
+	private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	private final String dir;
+	private final int numReaders;
+	private final int queueCapacity;
+
+	private final Map<Class<?>, EventHandler<?>> handlers = new HashMap<>();
+	private EventHandler<IIDEEvent> fallback = (zip, e) -> {
+	};
+	private int maxEventsPerZip = Integer.MAX_VALUE;
+	private volatile boolean isStarted = false;
+
+	private final ClassValue<EventHandler<IIDEEvent>> dispatch = new ClassValue<EventHandler<IIDEEvent>>() {
+		@Override
+		protected EventHandler<IIDEEvent> computeValue(Class<?> type) {
+			return resolve(type);
+		}
+	};
+
+	public EventReplay(String dir) {
+		this(dir, Runtime.getRuntime().availableProcessors());
+	}
+
+	public EventReplay(String dir, int numReaders) {
+		this(dir, numReaders, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public EventReplay(String dir, int numReaders, int queueCapacity) {
+		Asserts.assertTrue(numReaders > 0);
+		Asserts.assertTrue(queueCapacity > 0);
+		this.dir = dir;
+		this.numReaders = numReaders;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * registers the handler for all events that are instances of the given type
+	 */
+	public <T extends IIDEEvent> EventReplay on(Class<T> type, EventHandler<? super T> handler) {
+		Asserts.assertFalse(isStarted, "handlers have to be registered before the replay is started");
+		Asserts.assertFalse(handlers.containsKey(type), "a handler is already registered for " + type);
+		handlers.put(type, handler);
+		return this;
+	}
+
+	/**
+	 * registers the handler for all events that are not covered by any other
+	 * handler
+	 */
+	public EventReplay otherwise(EventHandler<IIDEEvent> handler) {
+		Asserts.assertFalse(isStarted, "handlers have to be registered before the replay is started");
+		fallback = handler;
+		return this;
+	}
+
+	/**
+	 * only the first events of each zip are replayed, which is helpful to quickly
+	 * try an analysis on the full dataset
+	 */
+	public EventReplay limitEventsPerZip(int max) {
+		Asserts.assertTrue(max > 0);
+		maxEventsPerZip = max;
+		return this;
+	}
+
+	/**
+	 * @return the number of replayed events
+	 */
+	public long run() {
+		isStarted = true;
+		// the largest zips are started first, see DatasetScanner
+		List<String> zips = new ArrayList<>(IoHelper.findAllZips(dir));
+		BlockingQueue<Item> queue = new ArrayBlockingQueue<>(queueCapacity);
+
+		ExecutorService pool = Executors.newFixedThreadPool(numReaders);
+		try (ProgressReporter progress = new ProgressReporter("replaying events", "zips", zips.size(), "events")) {
+			for (String zip : zips) {
+				pool.submit(() -> read(zip, queue));
+			}
+
+			LongAdder numEvents = progress.counter("events");
+			int numOpenZips = zips.size();
+			while (numOpenZips > 0) {
+				Item item = take(queue);
+				if (item.event != null) {
+					dispatch.get(item.event.getClass()).handle(item.zip, item.event);
+					numEvents.increment();
+				} else {
+					if (item.error != null) {
+						throw new RuntimeException("cannot read " + item.zip, item.error);
+					}
+					numOpenZips--;
+					progress.step();
+				}
+			}
+			return numEvents.sum();
+		} finally {
+			// also unblocks the readers, in case a handler has failed
+			pool.shutdownNow();
+		}
+	}
+
+	private void read(String zip, BlockingQueue<Item> queue) {
+		Throwable error = null;
+		try (IReadingArchive ra = IoHelper.openEvents(new File(dir, zip))) {
+			int numRead = 0;
+			while (ra.hasNext() && numRead++ < maxEventsPerZip) {
+				queue.put(new Item(zip, ra.getNext(IIDEEvent.class), null));
+			}
+		} catch (InterruptedException e) {
+			// the replay has been aborted
+			Thread.currentThread().interrupt();
+			return;
+		} catch (Exception e) {
+			error = e;
+		}
+		try {
+			// marks the end of the zip
+			queue.put(new Item(zip, null, error));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static Item take(BlockingQueue<Item> queue) {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private EventHandler<IIDEEvent> resolve(Class<?> type) {
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			if (handlers.containsKey(c)) {
+				return (EventHandler<IIDEEvent>) handlers.get(c);
+			}
+		}
+		// breadth-first search through all implemented interfaces
+		LinkedList<Class<?>> interfaces = new LinkedList<>();
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			for (Class<?> i : c.getInterfaces()) {
+				interfaces.add(i);
+			}
+		}
+		while (!interfaces.isEmpty()) {
+			Class<?> i = interfaces.removeFirst();
+			if (handlers.containsKey(i)) {
+				return (EventHandler<IIDEEvent>) handlers.get(i);
+			}
+			for (Class<?> parent : i.getInterfaces()) {
+				interfaces.add(parent);
+			}
+		}
+		return fallback;
+	}
+
+	private static class Item {
+		private final String zip;
+		private final IIDEEvent event;
+		private final Throwable error;
+
+		private Item(String zip, IIDEEvent event, Throwable error) {
+			this.zip = zip;
+			this.event = event;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package examples;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts occurrences of event types without boxing on every increment. A
+ * counter is not thread-safe, use one counter per thread and merge the
+ * results.
+ */
+public class EventTypeCounter {
+
+	private final Map<Class<?>, long[]> counts = new IdentityHashMap<>();
+	private long total = 0;
+
+	public void count(Object event) {
+		Class<?> key = event.getClass();
+		long[] count = counts.get(key);
+		if (count == null) {
+			count = new long[1];
+			counts.put(key, count);
+		}
+		count[0]++;
+		total++;
+	}
+
+	public void merge(EventTypeCounter other) {
+		for (Map.Entry<Class<?>, long[]> e : other.counts.entrySet()) {
+			long[] count = counts.get(e.getKey());
+			if (count == null) {
+				count = new long[1];
+				counts.put(e.getKey(), count);
+			}
+			count[0] += e.getValue()[0];
+		}
+		total += other.total;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public void print() {
+		Map<String, Long> sorted = new TreeMap<>();
+		for (Map.Entry<Class<?>, long[]> e : counts.entrySet()) {
+			sorted.merge(e.getKey().getSimpleName(), e.getValue()[0], Long::sum);
+		}
+		sorted.put("<total>", total);
+
+		for (String key : sorted.keySet()) {
+			System.out.printf("%s: %d\n", key, sorted.get(key));
+		}
+		System.out.printf("\n");
+	}
+}
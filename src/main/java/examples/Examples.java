@@ -31,6 +31,8 @@ import cc.kave.commons.model.typeshapes.ITypeHierarchy;
 import cc.kave.commons.model.typeshapes.ITypeShape;
 import cc.kave.commons.utils.io.json.JsonUtils;
 import cc.kave.commons.utils.ssts.SSTPrintingUtils;
+import examples.IoHelper.ContextStream;
+import examples.ParallelSSTTraversal.Analysis;
 
 /**
  * This class contains several code examples that explain how to use our CARET
@@ -45,8 +47,12 @@ public class Examples {
 	 * 1: read contexts
 	 */
 	public static void readContextsFromDisk() {
-		for (Context ctx : IoHelper.readAll(DIR_CONTEXTS)) {
-			// do whatever you like with the context
+		// contexts are streamed one at a time, so the whole dataset never has to
+		// fit into memory
+		try (ContextStream ctxs = IoHelper.streamAll(DIR_CONTEXTS)) {
+			for (Context ctx : ctxs) {
+				// do whatever you like with the context
+			}
 		}
 	}
 
@@ -115,4 +121,23 @@ public class Examples {
 			// ...
 		}
 	}
+
+	/**
+	 * 6: run a visitor over all contexts of a dataset, using all cores
+	 */
+	public static void traversingAllContextsInParallel() {
+		// every worker thread creates one visitor and one result set, which are
+		// reused for all SSTs that the thread processes. In the end, the sets of
+		// all workers are merged.
+		Set<ITypeName> seenTypes = new ParallelSSTTraversal(DIR_CONTEXTS).run(
+				Analysis.of(TypeCollectionVisitor::new, Sets::newHashSet, (a, b) -> {
+					a.addAll(b);
+					return a;
+				}));
+
+		// and do something with the types of the whole dataset
+		for (ITypeName type : seenTypes) {
+			// ...
+		}
+	}
 }
\ No newline at end of file
@@ -17,14 +17,11 @@ package examples;
 
 import java.io.File;
 import java.time.ZonedDateTime;
-import java.util.Set;
 
 import cc.kave.commons.model.events.CommandEvent;
-import cc.kave.commons.model.events.IDEEvent;
+import cc.kave.commons.model.events.IIDEEvent;
 import cc.kave.commons.model.events.completionevents.CompletionEvent;
 import cc.kave.commons.model.ssts.ISST;
-import cc.kave.commons.utils.io.IReadingArchive;
-import cc.kave.commons.utils.io.ReadingArchive;
 
 /**
  * Simple example that shows how the interaction dataset can be opened, all
@@ -33,6 +30,7 @@ import cc.kave.commons.utils.io.ReadingArchive;
 public class GettingStarted {
 
 	private String eventsDir;
+	private boolean isVerbose;
 
 	public GettingStarted(String eventsDir) {
 		this.eventsDir = eventsDir;
@@ -45,82 +43,72 @@ public class GettingStarted {
 		/*
 		 * Each .zip that is contained in the eventsDir represents all events that we
 		 * have collected for a specific user, the folder represents the first day when
-		 * the user uploaded data.
+		 * the user uploaded data. The EventReplay finds all these zips, reads them in
+		 * parallel, and deserializes each stored event, which is contained as a single
+		 * file with the Json representation of a subclass of IDEEvent.
 		 */
-		Set<String> userZips = IoHelper.findAllZips(eventsDir);
+		EventReplay replay = new EventReplay(eventsDir);
 
-		for (String userZip : userZips) {
-			System.out.printf("\n#### processing user zip: %s #####\n", userZip);
-			processUserZip(userZip);
-		}
-	}
-
-	private void processUserZip(String userZip) {
-		int numProcessedEvents = 0;
-		// open the .zip file ...
-		try (IReadingArchive ra = new ReadingArchive(new File(eventsDir, userZip))) {
-			// ... and iterate over content.
-			// the iteration will stop after 200 events to speed things up, remove this
-			// guard to process all events.
-			while (ra.hasNext() && (numProcessedEvents++ < 200)) {
-				/*
-				 * within the userZip, each stored event is contained as a single file that
-				 * contains the Json representation of a subclass of IDEEvent.
-				 */
-				IDEEvent e = ra.getNext(IDEEvent.class);
-
-				processEvent(e);
-			}
-		}
-	}
+		/*
+		 * if you review the type hierarchy of IDEEvent, you will realize that several
+		 * subclasses exist that provide access to context information that is specific
+		 * to the event type.
+		 * 
+		 * To access the context, you can register a handler for the runtime type of
+		 * the event, which then receives the event already cast accordingly.
+		 */
+		replay.on(CommandEvent.class, (zip, e) -> process(zip, e));
+		replay.on(CompletionEvent.class, (zip, e) -> process(zip, e));
+		/*
+		 * CommandEvent and Completion event are just two examples, please explore the
+		 * type hierarchy of IDEEvent to find other types and review their API to
+		 * understand what kind of context data is available.
+		 * 
+		 * We include this "fall back" case, to show which basic information is always
+		 * available.
+		 */
+		replay.otherwise((zip, e) -> processBasic(zip, e));
 
-	/*
-	 * if you review the type hierarchy of IDEEvent, you will realize that several
-	 * subclasses exist that provide access to context information that is specific
-	 * to the event type.
-	 * 
-	 * To access the context, you should check for the runtime type of the event and
-	 * cast it accordingly.
-	 * 
-	 * As soon as I have some more time, I will implement the visitor pattern to get
-	 * rid of the casting. For now, this is recommended way to access the contents.
-	 */
-	private void processEvent(IDEEvent e) {
-
-		if (e instanceof CommandEvent) {
-			process((CommandEvent) e);
-		} else if (e instanceof CompletionEvent) {
-			process((CompletionEvent) e);
-		} else {
-			/*
-			 * CommandEvent and Completion event are just two examples, please explore the
-			 * type hierarchy of IDEEvent to find other types and review their API to
-			 * understand what kind of context data is available.
-			 * 
-			 * We include this "fall back" case, to show which basic information is always
-			 * available.
-			 */
-			processBasic(e);
-		}
+		// the replay will stop after 200 events per zip to speed things up, remove
+		// this guard to process all events.
+		replay.limitEventsPerZip(200);
 
+		/*
+		 * printing every event is slow for the full dataset, so only the progress is
+		 * reported by default. Set the verbosity of the ProgressReporter to VERBOSE to
+		 * see the individual events. As the zips are replayed in parallel, the events
+		 * of different zips are printed interleaved, so every line starts with the zip
+		 * that the event belongs to.
+		 */
+		isVerbose = ProgressReporter.isVerbose();
+		replay.run();
 	}
 
-	private void process(CommandEvent ce) {
-		System.out.printf("found a CommandEvent (id: %s)\n", ce.getCommandId());
+	private void process(String zip, CommandEvent ce) {
+		if (!isVerbose) {
+			return;
+		}
+		System.out.printf("[%s] found a CommandEvent (id: %s)\n", zip, ce.getCommandId());
 	}
 
-	private void process(CompletionEvent e) {
+	private void process(String zip, CompletionEvent e) {
+		if (!isVerbose) {
+			return;
+		}
 
 		ISST snapshotOfEnclosingType = e.context.getSST();
 		String enclosingTypeName = snapshotOfEnclosingType.getEnclosingType().getFullName();
 
-		System.out.printf("found a CompletionEvent (was triggered in: %s)\n", enclosingTypeName);
+		System.out.printf("[%s] found a CompletionEvent (was triggered in: %s)\n", zip, enclosingTypeName);
 	}
 
-	private void processBasic(IDEEvent e) {
+	private void processBasic(String zip, IIDEEvent e) {
+		if (!isVerbose) {
+			return;
+		}
 		String eventType = e.getClass().getSimpleName();
 		ZonedDateTime triggerTime = e.getTriggeredAt();
 
-		System.out.printf("found an %s that has been triggered at: %s)\n", eventType, triggerTime);
+		System.out.printf("[%s] found an %s that has been triggered at: %s)\n", zip, eventType, triggerTime);
 	}
 }
\ No newline at end of file
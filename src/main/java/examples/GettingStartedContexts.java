@@ -30,14 +30,16 @@ import cc.kave.commons.model.ssts.impl.visitor.AbstractTraversingNodeVisitor;
 import cc.kave.commons.model.typeshapes.IMemberHierarchy;
 import cc.kave.commons.model.typeshapes.ITypeHierarchy;
 import cc.kave.commons.model.typeshapes.ITypeShape;
-import cc.kave.commons.utils.io.IReadingArchive;
-import cc.kave.commons.utils.io.ReadingArchive;
+import examples.IoHelper.ContextStream;
 
 @SuppressWarnings("unused")
 public class GettingStartedContexts {
 
 	private String ctxsDir;
 
+	// visitors can be reused, there is no need to create one for every statement
+	private final ExampleVisitor visitor = new ExampleVisitor();
+
 	public GettingStartedContexts(String ctxsDir) {
 		this.ctxsDir = ctxsDir;
 	}
@@ -68,16 +70,17 @@ public class GettingStartedContexts {
 		int numProcessedContexts = 0;
 
 		// open the .zip file ...
-		try (IReadingArchive ra = new ReadingArchive(new File(ctxsDir, slnZip))) {
+		try (ContextStream ctxs = IoHelper.stream(new File(ctxsDir, slnZip).getPath())) {
 			// ... and iterate over content.
 
 			// the iteration will stop after 10 contexts to speed things up in the example.
-			while (ra.hasNext() && (numProcessedContexts++ < 10)) {
+			while (ctxs.hasNext() && (numProcessedContexts++ < 10)) {
 				/*
 				 * within the slnZip, each stored context is contained as a single file that
-				 * contains the Json representation of a {@see Context}.
+				 * contains the Json representation of a {@see Context}. The stream only
+				 * deserializes one context at a time.
 				 */
-				Context ctx = ra.getNext(Context.class);
+				Context ctx = ctxs.next();
 
 				// the events can then be processed individually
 				processContext(ctx);
@@ -111,7 +114,7 @@ public class GettingStartedContexts {
 			for (IStatement stmt : md.getBody()) {
 				// process the body, most likely by traversing statements with an {@see
 				// ISSTNodeVisitor}
-				stmt.accept(new ExampleVisitor(), null);
+				stmt.accept(visitor, null);
 			}
 		}
 
@@ -15,15 +15,21 @@
  */
 package examples;
 
+import java.io.Closeable;
 import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import com.google.common.collect.Lists;
 
 import cc.kave.commons.model.events.completionevents.Context;
-import cc.kave.commons.utils.io.Directory;
 import cc.kave.commons.utils.io.IReadingArchive;
 import cc.kave.commons.utils.io.ReadingArchive;
 
@@ -33,41 +39,153 @@ import cc.kave.commons.utils.io.ReadingArchive;
 public class IoHelper {
 
 	public static Context readFirstContext(String dir) {
-		for (String zip : findAllZips(dir)) {
-			List<Context> ctxs = read(zip);
-			return ctxs.get(0);
+		try (ContextStream ctxs = streamAll(dir)) {
+			return ctxs.hasNext() ? ctxs.next() : null;
 		}
-		return null;
 	}
 
+	/*
+	 * materializes all contexts of all zips in "dir", prefer streamAll(dir) for
+	 * large datasets
+	 */
 	public static List<Context> readAll(String dir) {
 		LinkedList<Context> res = Lists.newLinkedList();
-
-		for (String zip : findAllZips(dir)) {
-			res.addAll(read(zip));
+		try (ContextStream ctxs = streamAll(dir)) {
+			for (Context ctx : ctxs) {
+				res.add(ctx);
+			}
 		}
 		return res;
 	}
 
+	/*
+	 * materializes all contexts of a zip, prefer stream(zipFile) for large zips
+	 */
 	public static List<Context> read(String zipFile) {
 		LinkedList<Context> res = Lists.newLinkedList();
-		try {
-			IReadingArchive ra = new ReadingArchive(new File(zipFile));
-			while (ra.hasNext()) {
-				res.add(ra.getNext(Context.class));
+		try (ContextStream ctxs = stream(zipFile)) {
+			for (Context ctx : ctxs) {
+				res.add(ctx);
 			}
-			ra.close();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		return res;
 	}
 
+	/*
+	 * lazily reads the contexts of a single zip, only one context is kept in
+	 * memory at a time.
+	 */
+	public static ContextStream stream(String zipFile) {
+		return stream(zipFile, ctx -> true);
+	}
+
+	public static ContextStream stream(String zipFile, Predicate<Context> filter) {
+		return new ContextStream(Collections.singleton(new File(zipFile)), filter);
+	}
+
+	/*
+	 * lazily reads the contexts of all zips in "dir", the zips are opened one after
+	 * the other.
+	 */
+	public static ContextStream streamAll(String dir) {
+		return streamAll(dir, ctx -> true);
+	}
+
+	public static ContextStream streamAll(String dir, Predicate<Context> filter) {
+		List<File> zips = DatasetScanner.scan(dir).stream().map(z -> z.file).collect(Collectors.toList());
+		return new ContextStream(zips, filter);
+	}
+
+	/*
+	 * opens a user zip of the interaction dataset. A length-prefixed Json cache
+	 * (see EventCache) is used transparently, if an up-to-date one exists.
+	 */
+	public static IReadingArchive openEvents(File zip) {
+		if (EventCache.hasUpToDateCache(zip)) {
+			return new EventCacheReader(EventCache.cacheFileOf(zip));
+		}
+		return new ReadingArchive(zip);
+	}
+
 	/*
 	 * will recursively search for all .zip files in the "dir". The paths that are
-	 * returned are relative to "dir".
+	 * returned are relative to "dir" and ordered from the largest to the smallest
+	 * zip (see DatasetScanner).
 	 */
 	public static Set<String> findAllZips(String dir) {
-		return new Directory(dir).findFiles(s -> s.endsWith(".zip"));
+		return new LinkedHashSet<>(DatasetScanner.findZips(dir));
+	}
+
+	/**
+	 * Iterates over all contexts in a number of zips that match a filter. The
+	 * archives are opened on demand and closed as soon as they are exhausted, use
+	 * it in a try-with-resources block to also close it on early exits.
+	 */
+	public static class ContextStream implements Iterator<Context>, Iterable<Context>, Closeable {
+
+		private final Iterator<File> zips;
+		private final Predicate<Context> filter;
+
+		private IReadingArchive ra;
+		private Context next;
+
+		private ContextStream(Iterable<File> zips, Predicate<Context> filter) {
+			this.zips = zips.iterator();
+			this.filter = filter;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null) {
+				if (ra == null) {
+					if (!zips.hasNext()) {
+						return false;
+					}
+					ra = new ReadingArchive(zips.next());
+				}
+				if (ra.hasNext()) {
+					Context ctx = ra.getNext(Context.class);
+					if (filter.test(ctx)) {
+						next = ctx;
+					}
+				} else {
+					closeArchive();
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public Context next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Context res = next;
+			next = null;
+			return res;
+		}
+
+		@Override
+		public Iterator<Context> iterator() {
+			return this;
+		}
+
+		@Override
+		public void close() {
+			closeArchive();
+			next = null;
+			while (zips.hasNext()) {
+				zips.next();
+			}
+		}
+
+		private void closeArchive() {
+			if (ra != null) {
+				ra.close();
+				ra = null;
+			}
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples;
+
+/**
+ * Histogram of latencies in nanoseconds, in the spirit of an HdrHistogram.
+ * Values are counted in log-linear buckets: every power of two is split into
+ * 128 equally wide buckets, so all reported percentiles are within 1% of the
+ * recorded values, independent of their magnitude. Recording does not
+ * allocate.
+ * 
+ * The histogram is not thread-safe, concurrent recorders should use their own
+ * instances and {@link #merge(LatencyHistogram)} them.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// about 18 minutes, larger values are clamped
+	private static final long MAX_VALUE = (1L << 40) - 1;
+
+	private final long[] counts = new long[indexOf(MAX_VALUE) + 1];
+	private long total = 0;
+	private long sum = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+
+	public void record(long nanos) {
+		long v = Math.min(Math.max(nanos, 0), MAX_VALUE);
+		counts[indexOf(v)]++;
+		total++;
+		sum += v;
+		min = Math.min(min, v);
+		max = Math.max(max, v);
+	}
+
+	public void merge(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		total += other.total;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	private static int indexOf(long v) {
+		if (v < 2 * SUB_BUCKETS) {
+			return (int) v;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (v >>> shift) - SUB_BUCKETS;
+	}
+
+	/*
+	 * the largest value that falls into the same bucket
+	 */
+	private static long highestValueOf(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	public long getCount() {
+		return total;
+	}
+
+	public long getMin() {
+		return total == 0 ? 0 : min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return total == 0 ? 0 : sum / (double) total;
+	}
+
+	public long getTotal() {
+		return sum;
+	}
+
+	/*
+	 * percentile in [0, 100], the result is capped by the recorded maximum
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), max);
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d, p50=%.3fms, p90=%.3fms, p99=%.3fms, p99.9=%.3fms, max=%.3fms", total,
+				getValueAtPercentile(50) / 1e6, getValueAtPercentile(90) / 1e6, getValueAtPercentile(99) / 1e6,
+				getValueAtPercentile(99.9) / 1e6, max / 1e6);
+	}
+}
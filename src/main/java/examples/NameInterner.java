@@ -0,0 +1,111 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cc.kave.commons.model.naming.IName;
+import cc.kave.rsse.calls.model.usages.ICallParameter;
+import cc.kave.rsse.calls.model.usages.IMemberAccess;
+import cc.kave.rsse.calls.model.usages.IUsage;
+import cc.kave.rsse.calls.model.usages.impl.CallParameter;
+import cc.kave.rsse.calls.model.usages.impl.Definition;
+import cc.kave.rsse.calls.model.usages.impl.MemberAccess;
+import cc.kave.rsse.calls.model.usages.impl.Usage;
+
+/**
+ * Maps equal names to a single canonical instance. Every deserialized context
+ * or usage carries its own copies of all names, so interning them right after
+ * decoding removes the duplicated identifier strings from the heap. As
+ * canonical instances share their identifier string, an equality check between
+ * them does not compare any characters. The interner is thread-safe and does
+ * not lock. It keeps all interned names alive, so it should only live as long
+ * as the names are needed or be cleared in between.
+ */
+public class NameInterner {
+
+	private final Map<IName, IName> names = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the canonical instance of the name, which is the first instance that
+	 *         has been interned
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends IName> T intern(T name) {
+		if (name == null) {
+			return null;
+		}
+		IName canonical = names.get(name);
+		if (canonical == null) {
+			canonical = names.putIfAbsent(name, name);
+			if (canonical == null) {
+				canonical = name;
+			}
+		}
+		return (T) canonical;
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	public void clear() {
+		names.clear();
+	}
+
+	/**
+	 * Replaces all names that are referenced in the usage by their canonical
+	 * instances. Only the default implementation of the usages can be changed,
+	 * other implementations are left untouched.
+	 */
+	public void intern(IUsage usage) {
+		if (!(usage instanceof Usage)) {
+			return;
+		}
+		Usage u = (Usage) usage;
+		u.type = intern(u.type);
+		u.classCtx = intern(u.classCtx);
+		u.methodCtx = intern(u.methodCtx);
+		if (u.definition instanceof Definition) {
+			Definition d = (Definition) u.definition;
+			d.member = intern(d.member);
+		}
+		for (IMemberAccess ma : u.memberAccesses) {
+			if (ma instanceof MemberAccess) {
+				MemberAccess m = (MemberAccess) ma;
+				m.member = intern(m.member);
+			}
+		}
+		internCallParameters(u.callParameters);
+	}
+
+	private void internCallParameters(Set<ICallParameter> params) {
+		if (params.isEmpty()) {
+			return;
+		}
+		// the parameters are immutable and part of a hash set, so they are replaced
+		List<ICallParameter> interned = new ArrayList<>(params.size());
+		for (ICallParameter p : params) {
+			interned.add(new CallParameter(intern(p.getMethod()), p.getArgIndex()));
+		}
+		params.clear();
+		params.addAll(interned);
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+import cc.kave.commons.assertions.Asserts;
+import cc.kave.commons.model.events.completionevents.Context;
+import cc.kave.commons.model.ssts.ISST;
+import cc.kave.commons.model.ssts.visitor.ISSTNodeVisitor;
+import examples.DatasetScanner.DatasetZip;
+import examples.IoHelper.ContextStream;
+
+/**
+ * Runs an SST analysis over all contexts of a dataset, using all cores. The
+ * zips are distributed over a {@link ForkJoinPool}. Every worker thread creates
+ * its own visitor and result container once and reuses both for all SSTs that
+ * it processes, so the visitor does not need to be thread-safe and results are
+ * collected without synchronization. Once all zips are processed, the results
+ * of all workers are combined with the merge step of the analysis.
+ * 
+ * A {@link TypeCollectionVisitor}, for example, can collect the types of the
+ * whole dataset with:
+ * 
+ * <pre>
+ * Set&lt;ITypeName&gt; types = new ParallelSSTTraversal(dir).run(
+ * 		Analysis.of(TypeCollectionVisitor::new, HashSet::new, (a, b) -&gt; { a.addAll(b); return a; }));
+ * </pre>
+ */
+public class ParallelSSTTraversal {
+
+	private final String dirContexts;
+	private final int parallelism;
+
+	public ParallelSSTTraversal(String dirContexts) {
+		this(dirContexts, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelSSTTraversal(String dirContexts, int parallelism) {
+		Asserts.assertTrue(parallelism > 0);
+		this.dirContexts = dirContexts;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Defines an analysis: how the visitor and the result container of a worker
+	 * are created, and how the results of two workers are merged.
+	 */
+	public interface Analysis<C> {
+
+		ISSTNodeVisitor<C, ?> newVisitor();
+
+		C newResult();
+
+		/**
+		 * @return the combined result, which may be one of the two arguments
+		 */
+		C merge(C a, C b);
+
+		static <C> Analysis<C> of(Supplier<? extends ISSTNodeVisitor<C, ?>> visitors, Supplier<C> results,
+				BinaryOperator<C> merge) {
+			return new Analysis<C>() {
+				@Override
+				public ISSTNodeVisitor<C, ?> newVisitor() {
+					return visitors.get();
+				}
+
+				@Override
+				public C newResult() {
+					return results.get();
+				}
+
+				@Override
+				public C merge(C a, C b) {
+					return merge.apply(a, b);
+				}
+			};
+		}
+	}
+
+	public <C> C run(Analysis<C> analysis) {
+		List<File> zips = new ArrayList<>();
+		for (DatasetZip zip : DatasetScanner.scan(dirContexts)) {
+			zips.add(zip.file);
+		}
+
+		Queue<Worker<C>> workers = new ConcurrentLinkedQueue<>();
+		ThreadLocal<Worker<C>> worker = ThreadLocal.withInitial(() -> {
+			Worker<C> w = new Worker<>(analysis.newVisitor(), analysis.newResult());
+			workers.add(w);
+			return w;
+		});
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try (ProgressReporter progress = new ProgressReporter("traversing SSTs", "zips", zips.size(), "contexts")) {
+			pool.invoke(new ZipTask<>(zips, 0, zips.size(), worker, progress));
+		} finally {
+			pool.shutdown();
+		}
+
+		C res = analysis.newResult();
+		for (Worker<C> w : workers) {
+			res = analysis.merge(res, w.result);
+		}
+		return res;
+	}
+
+	private static class Worker<C> {
+		private final ISSTNodeVisitor<C, ?> visitor;
+		private final C result;
+
+		private Worker(ISSTNodeVisitor<C, ?> visitor, C result) {
+			this.visitor = visitor;
+			this.result = result;
+		}
+
+		private void process(ISST sst) {
+			sst.accept(visitor, result);
+		}
+	}
+
+	/**
+	 * Splits the zips in halves until a single zip remains, which is then
+	 * processed by the worker of the executing thread.
+	 */
+	private static class ZipTask<C> extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<File> zips;
+		private final int from;
+		private final int to;
+		private final transient ThreadLocal<Worker<C>> worker;
+		private final transient ProgressReporter progress;
+
+		private ZipTask(List<File> zips, int from, int to, ThreadLocal<Worker<C>> worker,
+				ProgressReporter progress) {
+			this.zips = zips;
+			this.from = from;
+			this.to = to;
+			this.worker = worker;
+			this.progress = progress;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ZipTask<>(zips, from, mid, worker, progress),
+						new ZipTask<>(zips, mid, to, worker, progress));
+				return;
+			}
+			if (to == from) {
+				return;
+			}
+
+			Worker<C> w = worker.get();
+			LongAdder numContexts = progress.counter("contexts");
+			try (ContextStream ctxs = IoHelper.stream(zips.get(from).getPath())) {
+				for (Context ctx : ctxs) {
+					w.process(ctx.getSST());
+					numContexts.increment();
+				}
+			}
+			progress.step();
+		}
+	}
+}
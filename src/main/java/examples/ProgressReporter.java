@@ -0,0 +1,180 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples;
+
+import static cc.kave.commons.utils.io.Logger.log;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import cc.kave.commons.assertions.Asserts;
+
+/**
+ * Reports the progress of a long-running task. The workers only increment
+ * counters, which is cheap and does not allocate. A background thread renders
+ * the progress, the throughput and the estimated remaining time at a fixed
+ * rate, so the amount of output does not depend on the size of the dataset.
+ * 
+ * All counters have to be registered in the constructor, the reporter starts
+ * rendering right away and prints a final summary when it is closed.
+ */
+public class ProgressReporter implements Closeable {
+
+	public enum Verbosity {
+		/** no output at all */
+		QUIET,
+		/** only the final summary of each task */
+		SUMMARY,
+		/** periodic progress and the final summary */
+		PROGRESS,
+		/** additionally, the examples print details for every processed item */
+		VERBOSE
+	}
+
+	private static final long DEFAULT_INTERVAL_MS = 5000;
+
+	private static volatile Verbosity verbosity = Verbosity.PROGRESS;
+
+	private final String task;
+	private final String unit;
+	private final long total;
+	private final long startedAt;
+
+	private final LongAdder done = new LongAdder();
+	private final Map<String, LongAdder> counters = new LinkedHashMap<>();
+	private final ScheduledExecutorService renderer;
+
+	public ProgressReporter(String task, String unit, long total, String... counterNames) {
+		this(task, unit, total, DEFAULT_INTERVAL_MS, counterNames);
+	}
+
+	/**
+	 * @param total
+	 *            the number of expected steps, a value <= 0 means that the total
+	 *            is unknown, in which case no percentage and ETA is shown
+	 */
+	public ProgressReporter(String task, String unit, long total, long intervalMs, String... counterNames) {
+		Asserts.assertTrue(intervalMs > 0);
+		this.task = task;
+		this.unit = unit;
+		this.total = total;
+		for (String name : counterNames) {
+			counters.put(name, new LongAdder());
+		}
+		startedAt = System.currentTimeMillis();
+
+		if (verbosity.compareTo(Verbosity.PROGRESS) >= 0) {
+			renderer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "progress: " + task);
+				t.setDaemon(true);
+				return t;
+			});
+			renderer.scheduleAtFixedRate(() -> log("%s", render()), intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+		} else {
+			renderer = null;
+		}
+	}
+
+	public static void setVerbosity(Verbosity v) {
+		verbosity = v;
+	}
+
+	public static Verbosity getVerbosity() {
+		return verbosity;
+	}
+
+	/**
+	 * @return whether details should be printed for every processed item
+	 */
+	public static boolean isVerbose() {
+		return verbosity == Verbosity.VERBOSE;
+	}
+
+	public void step() {
+		done.increment();
+	}
+
+	public void step(long n) {
+		done.add(n);
+	}
+
+	public long getDone() {
+		return done.sum();
+	}
+
+	/**
+	 * Resolves a registered counter. Resolve it once outside of the hot loop and
+	 * only increment it inside.
+	 */
+	public LongAdder counter(String name) {
+		LongAdder c = counters.get(name);
+		if (c == null) {
+			// the message is only built for an actual failure
+			Asserts.fail("unknown counter: %s", name);
+		}
+		return c;
+	}
+
+	public long getCount(String name) {
+		return counter(name).sum();
+	}
+
+	public double getSeconds() {
+		return Math.max(System.currentTimeMillis() - startedAt, 1) / 1000d;
+	}
+
+	@Override
+	public void close() {
+		if (renderer != null) {
+			renderer.shutdownNow();
+		}
+		if (verbosity.compareTo(Verbosity.SUMMARY) >= 0) {
+			log("%s -- finished", render());
+		}
+	}
+
+	private String render() {
+		double secs = getSeconds();
+		long cur = done.sum();
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("[%s] %d", task, cur));
+		if (total > 0) {
+			sb.append(String.format("/%d %s (%.1f%%)", total, unit, 100 * cur / (double) total));
+		} else {
+			sb.append(' ').append(unit);
+		}
+		sb.append(String.format(", %.1f %s/s", cur / secs, unit));
+		if (total > 0 && cur > 0 && cur < total) {
+			long etaSecs = Math.round((total - cur) * secs / cur);
+			sb.append(String.format(", ETA %s", formatDuration(etaSecs)));
+		}
+		sb.append(String.format(", %s elapsed", formatDuration(Math.round(secs))));
+		for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+			long n = e.getValue().sum();
+			sb.append(String.format(" | %s: %d (%.1f/s)", e.getKey(), n, n / secs));
+		}
+		return sb.toString();
+	}
+
+	private static String formatDuration(long secs) {
+		return String.format("%d:%02d:%02d", secs / 3600, (secs / 60) % 60, secs % 60);
+	}
+}
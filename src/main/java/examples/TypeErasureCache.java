@@ -0,0 +1,514 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import cc.kave.commons.assertions.Asserts;
+import cc.kave.commons.model.events.completionevents.Context;
+import cc.kave.commons.model.naming.IName;
+import cc.kave.commons.model.naming.codeelements.IEventName;
+import cc.kave.commons.model.naming.codeelements.IFieldName;
+import cc.kave.commons.model.naming.codeelements.ILambdaName;
+import cc.kave.commons.model.naming.codeelements.IMemberName;
+import cc.kave.commons.model.naming.codeelements.IMethodName;
+import cc.kave.commons.model.naming.codeelements.IParameterName;
+import cc.kave.commons.model.naming.codeelements.IPropertyName;
+import cc.kave.commons.model.naming.types.IDelegateTypeName;
+import cc.kave.commons.model.naming.types.ITypeName;
+import cc.kave.commons.model.ssts.ISST;
+import cc.kave.commons.model.ssts.blocks.ICatchBlock;
+import cc.kave.commons.model.ssts.blocks.ITryBlock;
+import cc.kave.commons.model.ssts.declarations.IDelegateDeclaration;
+import cc.kave.commons.model.ssts.declarations.IEventDeclaration;
+import cc.kave.commons.model.ssts.declarations.IFieldDeclaration;
+import cc.kave.commons.model.ssts.declarations.IMethodDeclaration;
+import cc.kave.commons.model.ssts.declarations.IPropertyDeclaration;
+import cc.kave.commons.model.ssts.expressions.assignable.ICastExpression;
+import cc.kave.commons.model.ssts.expressions.assignable.ICompletionExpression;
+import cc.kave.commons.model.ssts.expressions.assignable.IInvocationExpression;
+import cc.kave.commons.model.ssts.expressions.assignable.ILambdaExpression;
+import cc.kave.commons.model.ssts.expressions.assignable.ITypeCheckExpression;
+import cc.kave.commons.model.ssts.impl.SST;
+import cc.kave.commons.model.ssts.impl.blocks.CatchBlock;
+import cc.kave.commons.model.ssts.impl.blocks.TryBlock;
+import cc.kave.commons.model.ssts.impl.declarations.DelegateDeclaration;
+import cc.kave.commons.model.ssts.impl.declarations.EventDeclaration;
+import cc.kave.commons.model.ssts.impl.declarations.FieldDeclaration;
+import cc.kave.commons.model.ssts.impl.declarations.MethodDeclaration;
+import cc.kave.commons.model.ssts.impl.declarations.PropertyDeclaration;
+import cc.kave.commons.model.ssts.impl.expressions.assignable.CastExpression;
+import cc.kave.commons.model.ssts.impl.expressions.assignable.CompletionExpression;
+import cc.kave.commons.model.ssts.impl.expressions.assignable.InvocationExpression;
+import cc.kave.commons.model.ssts.impl.expressions.assignable.LambdaExpression;
+import cc.kave.commons.model.ssts.impl.expressions.assignable.TypeCheckExpression;
+import cc.kave.commons.model.ssts.impl.references.EventReference;
+import cc.kave.commons.model.ssts.impl.references.FieldReference;
+import cc.kave.commons.model.ssts.impl.references.MethodReference;
+import cc.kave.commons.model.ssts.impl.references.PropertyReference;
+import cc.kave.commons.model.ssts.impl.statements.VariableDeclaration;
+import cc.kave.commons.model.ssts.impl.visitor.TypeErasureVisitor;
+import cc.kave.commons.model.ssts.references.IEventReference;
+import cc.kave.commons.model.ssts.references.IFieldReference;
+import cc.kave.commons.model.ssts.references.IMethodReference;
+import cc.kave.commons.model.ssts.references.IPropertyReference;
+import cc.kave.commons.model.ssts.references.IVariableReference;
+import cc.kave.commons.model.ssts.statements.IVariableDeclaration;
+import cc.kave.commons.model.ssts.visitor.ISSTNode;
+import cc.kave.commons.model.typeshapes.EventHierarchy;
+import cc.kave.commons.model.typeshapes.IMemberHierarchy;
+import cc.kave.commons.model.typeshapes.ITypeHierarchy;
+import cc.kave.commons.model.typeshapes.ITypeShape;
+import cc.kave.commons.model.typeshapes.MethodHierarchy;
+import cc.kave.commons.model.typeshapes.PropertyHierarchy;
+import cc.kave.commons.model.typeshapes.TypeHierarchy;
+import cc.kave.commons.model.typeshapes.TypeShape;
+import cc.kave.commons.utils.naming.TypeErasure;
+
+/**
+ * A drop-in replacement for {@link TypeErasure} that erases each distinct name
+ * only once. The same generic names appear in a large number of contexts, but
+ * the erasure parses the identifier of every occurrence again. The erased
+ * names are cached by their original name, the cache can be shared by any
+ * number of threads.
+ * 
+ * Contexts, SSTs, and type shapes are erased in the same way as by
+ * {@link TypeErasure}, but all contained names are resolved through the cache.
+ * As this re-creates the nodes of the {@link TypeErasureVisitor}, every n-th
+ * context is additionally erased by {@link TypeErasure#of(Context)} and
+ * compared to the cached result, so a library version that erases differently
+ * is noticed.
+ * 
+ * The cache is bounded and keeps two generations of names. New names are added
+ * to the young generation, names that are found in the old generation are
+ * promoted. Once the young generation is full, it becomes the old one and the
+ * previous old generation is dropped. Only names that have not been used for a
+ * whole generation are evicted, so the names of the current part of a dataset
+ * stay cached without the cache ever being emptied at once.
+ */
+public class TypeErasureCache {
+
+	private static final int DEFAULT_MAX_SIZE = 1000000;
+	private static final int DEFAULT_VERIFICATION_INTERVAL = 1000;
+
+	private final int generationSize;
+	private final int verificationInterval;
+	private volatile Map<IName, IName> young = new ConcurrentHashMap<>();
+	private volatile Map<IName, IName> old = new ConcurrentHashMap<>();
+
+	private final LongAdder numHits = new LongAdder();
+	private final LongAdder numMisses = new LongAdder();
+	private final LongAdder missNanos = new LongAdder();
+	private final LongAdder numEvictions = new LongAdder();
+	private final AtomicLong numContexts = new AtomicLong();
+
+	private final CachingTypeErasureVisitor visitor = new CachingTypeErasureVisitor();
+
+	public TypeErasureCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public TypeErasureCache(int maxSize) {
+		this(maxSize, DEFAULT_VERIFICATION_INTERVAL);
+	}
+
+	/**
+	 * @param verificationInterval
+	 *            every how many contexts the result is compared to
+	 *            {@link TypeErasure#of(Context)}, 0 disables the comparison
+	 */
+	public TypeErasureCache(int maxSize, int verificationInterval) {
+		Asserts.assertTrue(maxSize > 1);
+		Asserts.assertTrue(verificationInterval >= 0);
+		this.generationSize = maxSize / 2;
+		this.verificationInterval = verificationInterval;
+	}
+
+	public Context of(Context ctx) {
+		Context res = new Context();
+		res.setTypeShape(of(ctx.getTypeShape()));
+		res.setSST(of(ctx.getSST()));
+		// the first context is always verified
+		if (verificationInterval > 0 && numContexts.getAndIncrement() % verificationInterval == 0) {
+			Asserts.assertEquals(TypeErasure.of(ctx), res,
+					"cached erasure differs from TypeErasure for " + ctx.getSST().getEnclosingType());
+		}
+		return res;
+	}
+
+	public ISST of(ISST sst) {
+		// the visitor is stateless, so a single instance can be shared
+		return (ISST) sst.accept(visitor, null);
+	}
+
+	public ITypeShape of(ITypeShape ts) {
+		TypeShape res = new TypeShape();
+		res.setTypeHierarchy(of(ts.getTypeHierarchy()));
+		for (IMemberHierarchy<IEventName> eh : ts.getEventHierarchies()) {
+			EventHierarchy h = new EventHierarchy(of(eh.getElement()));
+			if (eh.getSuper() != null) {
+				h.setSuper(of(eh.getSuper()));
+			}
+			if (eh.getFirst() != null) {
+				h.setFirst(of(eh.getFirst()));
+			}
+			res.getEventHierarchies().add(h);
+		}
+		for (IMemberHierarchy<IMethodName> mh : ts.getMethodHierarchies()) {
+			MethodHierarchy h = new MethodHierarchy(of(mh.getElement()));
+			if (mh.getSuper() != null) {
+				h.setSuper(of(mh.getSuper()));
+			}
+			if (mh.getFirst() != null) {
+				h.setFirst(of(mh.getFirst()));
+			}
+			res.getMethodHierarchies().add(h);
+		}
+		for (IMemberHierarchy<IPropertyName> ph : ts.getPropertyHierarchies()) {
+			PropertyHierarchy h = new PropertyHierarchy(of(ph.getElement()));
+			if (ph.getSuper() != null) {
+				h.setSuper(of(ph.getSuper()));
+			}
+			if (ph.getFirst() != null) {
+				h.setFirst(of(ph.getFirst()));
+			}
+			res.getPropertyHierarchies().add(h);
+		}
+		for (ITypeName t : ts.getNestedTypes()) {
+			res.getNestedTypes().add(of(t));
+		}
+		for (IFieldName f : ts.getFields()) {
+			res.getFields().add(of(f));
+		}
+		for (IDelegateTypeName d : ts.getDelegates()) {
+			res.getDelegates().add(of(d).asDelegateTypeName());
+		}
+		return res;
+	}
+
+	private ITypeHierarchy of(ITypeHierarchy th) {
+		TypeHierarchy res = new TypeHierarchy(of(th.getElement()));
+		if (th.getExtends() != null) {
+			res.setExtends(of(th.getExtends()));
+		}
+		for (ITypeHierarchy i : th.getImplements()) {
+			res.getImplements().add(of(i));
+		}
+		return res;
+	}
+
+	public ITypeName of(ITypeName t) {
+		return cached(t, TypeErasure::of);
+	}
+
+	public IMethodName of(IMethodName m) {
+		return cached(m, TypeErasure::of);
+	}
+
+	public IFieldName of(IFieldName f) {
+		return cached(f, TypeErasure::of);
+	}
+
+	public IEventName of(IEventName e) {
+		return cached(e, TypeErasure::of);
+	}
+
+	public IPropertyName of(IPropertyName p) {
+		return cached(p, TypeErasure::of);
+	}
+
+	public IParameterName of(IParameterName p) {
+		return cached(p, TypeErasure::of);
+	}
+
+	public ILambdaName of(ILambdaName l) {
+		return cached(l, TypeErasure::of);
+	}
+
+	public IMemberName of(IMemberName m) {
+		if (m instanceof IEventName) {
+			return of((IEventName) m);
+		}
+		if (m instanceof IFieldName) {
+			return of((IFieldName) m);
+		}
+		if (m instanceof IMethodName) {
+			return of((IMethodName) m);
+		}
+		if (m instanceof IPropertyName) {
+			return of((IPropertyName) m);
+		}
+		throw new IllegalArgumentException(String.format("Unknown member type: %s", m.getClass().getSimpleName()));
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends IName> T cached(T name, Function<T, T> erasure) {
+		IName erased = young.get(name);
+		if (erased == null) {
+			erased = old.get(name);
+			if (erased != null) {
+				put(name, erased);
+			}
+		}
+		if (erased != null) {
+			numHits.increment();
+			return (T) erased;
+		}
+
+		long start = System.nanoTime();
+		T res = erasure.apply(name);
+		missNanos.add(System.nanoTime() - start);
+		numMisses.increment();
+
+		put(name, res);
+		return res;
+	}
+
+	private void put(IName name, IName erased) {
+		Map<IName, IName> y = young;
+		y.put(name, erased);
+		if (y.size() >= generationSize) {
+			nextGeneration(y);
+		}
+	}
+
+	private synchronized void nextGeneration(Map<IName, IName> full) {
+		// another thread might have started the next generation in the meantime
+		if (young == full) {
+			numEvictions.add(old.size());
+			old = full;
+			young = new ConcurrentHashMap<>();
+		}
+	}
+
+	public long getNumHits() {
+		return numHits.sum();
+	}
+
+	public long getNumMisses() {
+		return numMisses.sum();
+	}
+
+	public double getHitRatio() {
+		long hits = numHits.sum();
+		long total = hits + numMisses.sum();
+		return total == 0 ? 0 : hits / (double) total;
+	}
+
+	/**
+	 * @return the estimated time that the hits have saved, based on the average
+	 *         time of erasing a name that is not cached
+	 */
+	public long getSavedNanos() {
+		long misses = numMisses.sum();
+		return misses == 0 ? 0 : numHits.sum() * missNanos.sum() / misses;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"TypeErasureCache (%d names, %d hits, %d misses, %.1f%% hit ratio, %d evicted, %d ms erasing, ~%d ms saved)",
+				young.size() + old.size(), getNumHits(), getNumMisses(), getHitRatio() * 100, numEvictions.sum(),
+				missNanos.sum() / 1000000, getSavedNanos() / 1000000);
+	}
+
+	/**
+	 * Creates the same copy of an SST as its super class, but resolves all names
+	 * through the cache. Only the nodes that contain names are overridden.
+	 */
+	private class CachingTypeErasureVisitor extends TypeErasureVisitor {
+
+		@Override
+		public Object visit(ISST sst, Object context) {
+			SST res = new SST();
+			res.setEnclosingType(of(sst.getEnclosingType()));
+			for (IDelegateDeclaration d : sst.getDelegates()) {
+				res.getDelegates().add(visit(d, null));
+			}
+			for (IEventDeclaration e : sst.getEvents()) {
+				res.getEvents().add(visit(e, null));
+			}
+			for (IFieldDeclaration f : sst.getFields()) {
+				res.getFields().add(visit(f, null));
+			}
+			for (IMethodDeclaration m : sst.getMethods()) {
+				res.getMethods().add(visit(m, null));
+			}
+			for (IPropertyDeclaration p : sst.getProperties()) {
+				res.getProperties().add(visit(p, null));
+			}
+			return res;
+		}
+
+		@Override
+		public IDelegateDeclaration visit(IDelegateDeclaration stmt, Object context) {
+			DelegateDeclaration res = new DelegateDeclaration();
+			res.setName(of(stmt.getName()).asDelegateTypeName());
+			return res;
+		}
+
+		@Override
+		public IEventDeclaration visit(IEventDeclaration stmt, Object context) {
+			EventDeclaration res = new EventDeclaration();
+			res.setName(of(stmt.getName()));
+			return res;
+		}
+
+		@Override
+		public IFieldDeclaration visit(IFieldDeclaration stmt, Object context) {
+			FieldDeclaration res = new FieldDeclaration();
+			res.setName(of(stmt.getName()));
+			return res;
+		}
+
+		@Override
+		public IMethodDeclaration visit(IMethodDeclaration stmt, Object context) {
+			MethodDeclaration res = new MethodDeclaration();
+			res.setName(of(stmt.getName()));
+			res.setEntryPoint(stmt.isEntryPoint());
+			res.body.addAll(visit(stmt.getBody()));
+			return res;
+		}
+
+		@Override
+		public IPropertyDeclaration visit(IPropertyDeclaration stmt, Object context) {
+			PropertyDeclaration res = new PropertyDeclaration();
+			res.setName(of(stmt.getName()));
+			res.setGet(visit(stmt.getGet()));
+			res.setSet(visit(stmt.getSet()));
+			return res;
+		}
+
+		@Override
+		public Object visit(ITryBlock block, Object context) {
+			TryBlock res = new TryBlock();
+			res.body.addAll(visit(block.getBody()));
+			for (ICatchBlock cb : block.getCatchBlocks()) {
+				CatchBlock c = new CatchBlock();
+				c.setKind(cb.getKind());
+				c.setParameter(of(cb.getParameter()));
+				c.setBody(visit(cb.getBody()));
+				res.getCatchBlocks().add(c);
+			}
+			res._finally.addAll(visit(block.getFinally()));
+			return res;
+		}
+
+		@Override
+		public Object visit(IVariableDeclaration stmt, Object context) {
+			VariableDeclaration res = new VariableDeclaration();
+			res.setReference(stmt.getReference());
+			res.setType(of(stmt.getType()));
+			return res;
+		}
+
+		@Override
+		public Object visit(ICastExpression expr, Object context) {
+			CastExpression res = new CastExpression();
+			res.setReference((IVariableReference) expr.getReference().accept(this, null));
+			res.setOperator(expr.getOperator());
+			res.setTargetType(of(expr.getTargetType()));
+			return res;
+		}
+
+		@Override
+		public Object visit(ICompletionExpression expr, Object context) {
+			CompletionExpression res = new CompletionExpression();
+			if (expr.getVariableReference() != null) {
+				res.setVariableReference((IVariableReference) expr.getVariableReference().accept(this, null));
+			}
+			if (expr.getToken() != null) {
+				res.setToken(expr.getToken());
+			}
+			if (expr.getTypeReference() != null) {
+				res.setTypeReference(of(expr.getTypeReference()));
+			}
+			return res;
+		}
+
+		@Override
+		public Object visit(IInvocationExpression expr, Object context) {
+			InvocationExpression res = new InvocationExpression();
+			res.setReference((IVariableReference) expr.getReference().accept(this, null));
+			res.setMethodName(of(expr.getMethodName()));
+			res.parameters.addAll(visit(expr.getParameters()));
+			return res;
+		}
+
+		@Override
+		public Object visit(ILambdaExpression expr, Object context) {
+			LambdaExpression res = new LambdaExpression();
+			res.setName(of(expr.getName()));
+			res.setBody(visit(expr.getBody()));
+			return res;
+		}
+
+		@Override
+		public Object visit(ITypeCheckExpression expr, Object context) {
+			TypeCheckExpression res = new TypeCheckExpression();
+			res.setReference((IVariableReference) expr.getReference().accept(this, null));
+			res.setType(of(expr.getType()));
+			return res;
+		}
+
+		@Override
+		public Object visit(IEventReference ref, Object context) {
+			EventReference res = new EventReference();
+			res.setReference((IVariableReference) ref.getReference().accept(this, null));
+			res.setEventName(of(ref.getEventName()));
+			return res;
+		}
+
+		@Override
+		public Object visit(IFieldReference ref, Object context) {
+			FieldReference res = new FieldReference();
+			res.setReference((IVariableReference) ref.getReference().accept(this, null));
+			res.setFieldName(of(ref.getFieldName()));
+			return res;
+		}
+
+		@Override
+		public Object visit(IMethodReference ref, Object context) {
+			MethodReference res = new MethodReference();
+			res.setReference((IVariableReference) ref.getReference().accept(this, null));
+			res.setMethodName(of(ref.getMethodName()));
+			return res;
+		}
+
+		@Override
+		public Object visit(IPropertyReference ref, Object context) {
+			PropertyReference res = new PropertyReference();
+			res.setReference((IVariableReference) ref.getReference().accept(this, null));
+			res.setPropertyName(of(ref.getPropertyName()));
+			return res;
+		}
+
+		@SuppressWarnings("unchecked")
+		private <T extends ISSTNode> List<T> visit(List<T> nodes) {
+			List<T> res = new LinkedList<>();
+			for (T node : nodes) {
+				res.add((T) node.accept(this, null));
+			}
+			return res;
+		}
+	}
+}
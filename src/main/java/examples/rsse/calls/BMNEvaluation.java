@@ -15,22 +15,34 @@
  */
 package examples.rsse.calls;
 
-import static cc.kave.commons.utils.io.Logger.append;
 import static cc.kave.commons.utils.io.Logger.log;
 import static cc.kave.commons.utils.ssts.completioninfo.CompletionInfo.extractCompletionInfoFrom;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
+import com.google.gson.GsonBuilder;
+
 import cc.kave.commons.assertions.Asserts;
 import cc.kave.commons.model.events.IDEEvent;
 import cc.kave.commons.model.events.completionevents.CompletionEvent;
@@ -43,27 +55,62 @@ import cc.kave.commons.model.naming.codeelements.IMethodName;
 import cc.kave.commons.model.naming.types.ITypeName;
 import cc.kave.commons.model.ssts.impl.expressions.assignable.CompletionExpression;
 import cc.kave.commons.model.typeshapes.ITypeHierarchy;
-import cc.kave.commons.utils.io.Directory;
 import cc.kave.commons.utils.io.IReadingArchive;
 import cc.kave.commons.utils.io.Logger;
-import cc.kave.commons.utils.io.ReadingArchive;
-import cc.kave.commons.utils.naming.TypeErasure;
+import cc.kave.commons.utils.io.json.JsonUtils;
 import cc.kave.commons.utils.ssts.completioninfo.CompletionInfo;
-import cc.kave.rsse.calls.UsageMining;
+import cc.kave.rsse.calls.mining.FeatureExtractor;
 import cc.kave.rsse.calls.mining.Options;
 import cc.kave.rsse.calls.recs.bmn.BMNModelStore;
-import cc.kave.rsse.calls.recs.bmn.BMNRecommender;
+import examples.DatasetScanner;
+import examples.EventCacheReader;
+import examples.EventIndex;
+import examples.IoHelper;
+import examples.ProgressReporter;
+import examples.TypeErasureCache;
+import examples.rsse.calls.BMNEvaluationStats.Filter;
+import examples.rsse.calls.BMNEvaluationStats.Stage;
 
 public class BMNEvaluation {
 
-	private final Options opts;
-	private final BMNModelStore bmnModelStore;
+	private static final long DEFAULT_CACHE_SIZE = 1024L * 1024 * 1024; // 1GB
+
+	private final BMNModelCache bmnModelStore;
+	private final MappedBMNRecommender bmnRec;
+	private final MappedBMNModelStore mappedModelStore;
+	private final MappedBMNRecommender mappedRec;
 	private final String dirEvents;
+	private final EventIndex eventIndex;
+	private final int numThreads;
+
+	private final BMNEvaluationStats stats = new BMNEvaluationStats();
+	private final BMNEvaluationMetrics metrics = new BMNEvaluationMetrics();
+	private final TypeErasureCache erasure = new TypeErasureCache();
 
 	public BMNEvaluation(Options opts, String dirBmnModels, String dirEvents) {
-		this.opts = opts;
+		this(opts, dirBmnModels, dirEvents, DEFAULT_CACHE_SIZE);
+	}
+
+	public BMNEvaluation(Options opts, String dirBmnModels, String dirEvents, long maxCachedModelBytes) {
+		this(opts, dirBmnModels, dirEvents, maxCachedModelBytes, Runtime.getRuntime().availableProcessors());
+	}
+
+	public BMNEvaluation(Options opts, String dirBmnModels, String dirEvents, long maxCachedModelBytes,
+			int numThreads) {
+		Asserts.assertTrue(numThreads > 0);
 		this.dirEvents = dirEvents;
-		bmnModelStore = new BMNModelStore(dirBmnModels, opts);
+		this.numThreads = numThreads;
+		// an EventIndex is used, if one has been built for the current state of the
+		// dataset, otherwise the zips are scanned
+		eventIndex = EventIndex.openIfUpToDate(dirEvents);
+		// Json models are converted into the bit-packed format once they are loaded,
+		// so all queries use the same (thread-safe) recommender implementation
+		bmnModelStore = new BMNModelCache(new BMNModelStore(dirBmnModels, opts), maxCachedModelBytes);
+		bmnRec = new MappedBMNRecommender(new FeatureExtractor(opts), bmnModelStore, opts);
+		// models in the mapped format are preferred, they are not decoded and do not
+		// need to be cached on the heap
+		mappedModelStore = new MappedBMNModelStore(dirBmnModels, opts);
+		mappedRec = new MappedBMNRecommender(new FeatureExtractor(opts), mappedModelStore, opts);
 	}
 
 	public void run() {
@@ -75,108 +122,196 @@ public class BMNEvaluation {
 		// HashSet<>(Arrays.asList("/Volumes/Data/Events-170301-2/2016-05-09/1.zip"));
 
 		log("found %d event zips...", eventZips.size());
-		int total = eventZips.size();
-		int cur = 1;
+
+		// every zip is evaluated by one worker in its own histogram. The histograms
+		// are merged in the original order of the zips, so all results are
+		// independent of the number of threads.
+		ProgressReporter progress = new ProgressReporter("evaluating", "zips", eventZips.size(), "events",
+				"queries");
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		List<Future<ZipResult>> results = new LinkedList<>();
 		for (String zip : eventZips) {
-			double perc = 100 * cur / (double) total;
-			log("###");
-			log("### %d/%d (%.1f%%): %s ...", cur++, total, perc, zip);
-			double zipSize = FileUtils.sizeOf(new File(zip)) / (1024d * 1024d);
-			append(" (%.2f MB)", zipSize);
-			log("###");
-
-			try (ReadingArchiveIterator it = findAppliedCompletionEvents(zip)) {
-
-				try {
-					while (it.hasNext()) {
-						evaluate(it.next());
-					}
-				} catch (Exception e) {
-					Logger.debug("Caught exception...");
-					e.printStackTrace();
-				}
+			results.add(pool.submit(() -> evaluateZip(zip, progress.counter("events"))));
+		}
 
-				printResults();
+		try {
+			Iterator<Future<ZipResult>> it = results.iterator();
+			for (String zip : eventZips) {
+				ZipResult zr = await(it.next());
+				stats.merge(zr.stats);
+				metrics.merge(zr.metrics);
+				progress.counter("queries").add(zr.metrics.getNumQueries());
+				progress.step();
+
+				if (ProgressReporter.isVerbose()) {
+					double zipSize = FileUtils.sizeOf(new File(zip)) / (1024d * 1024d);
+					log("### %s (%.2f MB)", zip, zipSize);
+					log("%s", metrics);
+				}
 			}
+		} finally {
+			pool.shutdownNow();
+			progress.close();
 		}
 
-		append("\n\n");
+		log("%s", metrics);
+		log("%s", bmnModelStore);
+		log("%s", erasure);
+		log("%s", stats);
+		log("%s", stats.toJson());
 		log("done");
 	}
 
-	private int[] topK = new int[11]; // with "0" being total
+	public BMNEvaluationStats getStats() {
+		return stats;
+	}
+
+	public BMNEvaluationMetrics getMetrics() {
+		return metrics;
+	}
+
+	/*
+	 * writes the machine-readable report of the last run: the metrics (incl. the
+	 * results per type) and the stats as Json into "f", and the metrics per type
+	 * as CSV into a file next to it ("report.json" -> "report.csv")
+	 */
+	public void writeReport(File f) {
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("metrics", metrics.toReport());
+		report.put("stats", stats.toReport());
+		try {
+			FileUtils.writeStringToFile(f, new GsonBuilder().setPrettyPrinting().create().toJson(report),
+					StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		String csv = f.getName().replaceFirst("\\.json$", "") + ".csv";
+		metrics.writeCsv(new File(f.getParentFile(), csv));
+	}
 
-	private void evaluate(CompletionEvent ce) {
+	private ZipResult evaluateZip(String zip, LongAdder numEvents) {
+		ZipResult zr = new ZipResult();
+		try (CompletionEventIterator it = findAppliedCompletionEvents(zip)) {
+			try {
+				while (it.hasNext()) {
+					evaluate(it.next(), zr.metrics, zr.stats);
+					numEvents.increment();
+				}
+			} catch (Exception e) {
+				Logger.debug("Caught exception...");
+				e.printStackTrace();
+			}
+		}
+		return zr;
+	}
+
+	private static class ZipResult {
+		private final BMNEvaluationMetrics metrics = new BMNEvaluationMetrics();
+		private final BMNEvaluationStats stats = new BMNEvaluationStats();
+	}
+
+	private static <T> T await(Future<T> f) {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private void evaluate(CompletionEvent ce, BMNEvaluationMetrics metrics, BMNEvaluationStats stats) {
+		stats.countEvent();
 		List<IName> vsProposals = getVisualStudioProposals(ce);
 
 		Context ctx = ce.getContext();
-		ctx = TypeErasure.of(ctx); // remove bindings of generic types
+		long start = System.nanoTime();
+		ctx = erasure.of(ctx); // remove bindings of generic types
+		stats.record(Stage.TYPE_ERASURE, start);
 
 		// skip event, if no selection exists
 		IProposal selection = ce.getLastSelectedProposal();
 		if (selection == null) {
-			append("x, ");
+			stats.count(Filter.NO_SELECTION);
 			return;
 		}
 		IName expectation = selection.getName();
 
+		start = System.nanoTime();
 		Optional<CompletionInfo> info = extractCompletionInfoFrom(ctx);
+		stats.record(Stage.COMPLETION_INFO, start);
 
 		if (!info.isPresent()) {
 			// no completion info
+			stats.count(Filter.NO_COMPLETION_INFO);
 			return;
 		}
 
 		CompletionExpression complE = (CompletionExpression) info.get().getCompletionExpr();
 		if (complE.getTypeReference() != null) {
 			// completion of type name
+			stats.count(Filter.TYPE_COMPLETION);
 			return;
 		}
 
 		if (!(expectation instanceof IMemberName)) {
 			// no member completion
+			stats.count(Filter.NO_MEMBER);
 			return;
 		}
 		IMemberName expectedMember = (IMemberName) expectation;
 
 		if (expectedMember.isStatic()) {
 			// completion of static member
+			stats.count(Filter.STATIC_MEMBER);
 			return;
 		}
 
 		ITypeName callDeclType = expectedMember.getDeclaringType();
 		if (ctx.getSST().getEnclosingType().equals(callDeclType)) {
 			// completion on "this"
+			stats.count(Filter.THIS);
 			return;
 		}
 		if (isInHierarchy(callDeclType, ctx.getTypeShape().getTypeHierarchy())) {
 			// completion on Base
+			stats.count(Filter.BASE);
 			return;
 		}
 
 		ITypeName t = info.get().getTriggeredType();
 		if (t == null) {
 			// triggered type cannot be determined
+			stats.count(Filter.NO_TRIGGERED_TYPE);
 			return;
 		}
 
 		if (expectedMember.isUnknown() || t.isUnknown()) {
 			// invalid type
+			stats.count(Filter.UNKNOWN_TYPE);
 			return;
 		}
-		if (!bmnModelStore.hasModel(t)) {
+		start = System.nanoTime();
+		boolean isMapped = mappedModelStore.hasModel(t);
+		boolean hasModel = isMapped || bmnModelStore.hasModel(t);
+		stats.record(Stage.HAS_MODEL, start);
+		if (!hasModel) {
 			// no model
+			stats.count(Filter.NO_MODEL);
 			return;
 		}
 
 		// make sure to remove generics
-		expectedMember = TypeErasure.of(expectedMember);
-
-		// instantiate recommender...
-		BMNRecommender bmnRec = UsageMining.getBMNRecommender(bmnModelStore, opts);
-		// .. and request proposals
-		Set<Pair<IMemberName, Double>> bmnRes = bmnRec.query(ctx, vsProposals);
-		evaluate(t, expectedMember, bmnRes);
+		expectedMember = erasure.of(expectedMember);
+
+		// request proposals
+		start = System.nanoTime();
+		Set<Pair<IMemberName, Double>> bmnRes = isMapped ? mappedRec.query(ctx, vsProposals)
+				: bmnRec.query(ctx, vsProposals);
+		stats.record(Stage.QUERY, start);
+		stats.countEvaluated();
+		evaluate(t, expectedMember, bmnRes, metrics);
 	}
 
 	private boolean isInHierarchy(ITypeName t, ITypeHierarchy th) {
@@ -196,43 +331,41 @@ public class BMNEvaluation {
 		return false;
 	}
 
-	private void evaluate(ITypeName targetType, IMemberName expected, Set<Pair<IMemberName, Double>> actuals) {
-		topK[0]++;
-		// TODO: this is just basic debugging output on the terminal, extend to the
-		// example and calculate some real metrics.
+	private void evaluate(ITypeName targetType, IMemberName expected, Set<Pair<IMemberName, Double>> actuals,
+			BMNEvaluationMetrics metrics) {
 		if (expected instanceof IMethodName) {
-			expected = TypeErasure.of((IMethodName) expected);
+			expected = erasure.of((IMethodName) expected);
 		}
-		log("-------------------------------");
-		log("triggered for: %s", targetType);
-		log("wanted: %s", expected);
-		log("proposals");
-		int hit = -1;
+		int hit = 0;
 		int count = 0;
 		for (Pair<IMemberName, Double> e : actuals) {
 			count++;
-			IMemberName proposal = e.getKey();
-
-			log(" - %s  (%.1f%%)", proposal, e.getValue() * 100);
-			if (proposal.equals(expected)) {
+			if (hit == 0 && e.getKey().equals(expected)) {
 				hit = count;
 			}
 		}
-		if (hit != -1) {
-			log("Hit on index: %d", hit);
-			for (int i = hit; i < topK.length; i++) {
-				topK[i]++;
-			}
+		metrics.record(targetType, count, hit);
+
+		if (ProgressReporter.isVerbose()) {
+			logProposals(targetType, expected, actuals, hit);
 		}
 	}
 
-	private void printResults() {
-		log("TopK precision for %d completions:", topK[0]);
-		for (int i = 1; i < topK.length; i++) {
-			double topKPrec = topK[i] / (double) topK[0];
-			log("Top%d: %.1f%%", i, topKPrec * 100);
+	private static void logProposals(ITypeName targetType, IMemberName expected,
+			Set<Pair<IMemberName, Double>> actuals, int hit) {
+		// a single log statement per query, to prevent interleaving of the workers
+		StringBuilder sb = new StringBuilder();
+		sb.append("-------------------------------\n");
+		sb.append(String.format("triggered for: %s\n", targetType));
+		sb.append(String.format("wanted: %s\n", expected));
+		sb.append("proposals\n");
+		for (Pair<IMemberName, Double> e : actuals) {
+			sb.append(String.format(" - %s  (%.1f%%)\n", e.getKey(), e.getValue() * 100));
 		}
-		log("");
+		if (hit != 0) {
+			sb.append(String.format("Hit on index: %d", hit));
+		}
+		log("%s", sb);
 	}
 
 	private static List<IName> getVisualStudioProposals(CompletionEvent ce) {
@@ -241,12 +374,54 @@ public class BMNEvaluation {
 		return mapped.collect(Collectors.toList());
 	}
 
-	private static ReadingArchiveIterator findAppliedCompletionEvents(String zip) {
+	private CompletionEventIterator findAppliedCompletionEvents(String zip) {
 		File f = new File(zip);
-		return new ReadingArchiveIterator(new ReadingArchive(f));
+		if (eventIndex != null) {
+			// jump directly to the relevant entries, all other events are not touched
+			String relZip = zip.substring(dirEvents.length());
+			List<EventIndex.Entry> entries = eventIndex.find(relZip, CompletionEvent.class, TerminationState.Applied,
+					null, null);
+			return new IndexedIterator(new EventIndex.ZipReader(f), entries);
+		}
+		return new ReadingArchiveIterator(IoHelper.openEvents(f));
+	}
+
+	private interface CompletionEventIterator extends Iterator<CompletionEvent>, Closeable {
+		@Override
+		void close();
+	}
+
+	private static class IndexedIterator implements CompletionEventIterator {
+
+		private final EventIndex.ZipReader zr;
+		private final Iterator<EventIndex.Entry> entries;
+
+		public IndexedIterator(EventIndex.ZipReader zr, List<EventIndex.Entry> entries) {
+			this.zr = zr;
+			this.entries = entries.iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return entries.hasNext();
+		}
+
+		@Override
+		public CompletionEvent next() {
+			return zr.read(entries.next().entry, IDEEvent.class);
+		}
+
+		@Override
+		public void close() {
+			zr.close();
+		}
 	}
 
-	private static class ReadingArchiveIterator implements Iterator<CompletionEvent>, Closeable {
+	private static class ReadingArchiveIterator implements CompletionEventIterator {
+
+		private static final String COMPLETION_EVENT_TYPE = "KaVE.Commons.Model.Events.CompletionEvents.CompletionEvent, KaVE.Commons";
+		private static final String COMPLETION_EVENT_CLASS = CompletionEvent.class.getName();
+		private static final String TERMINATION_STATE_PROPERTY = "\"TerminatedState\":";
 
 		private IReadingArchive ra;
 		CompletionEvent next = null;
@@ -261,7 +436,21 @@ public class BMNEvaluation {
 				return true;
 			}
 			while (next == null && ra.hasNext()) {
-				IDEEvent e = ra.getNext(IDEEvent.class);
+				if (ra instanceof EventCacheReader) {
+					// event caches contain the required information in the entry header
+					EventCacheReader cr = (EventCacheReader) ra;
+					if (!COMPLETION_EVENT_CLASS.equals(cr.peekType())
+							|| cr.peekTerminationState() != TerminationState.Applied) {
+						cr.skip();
+						continue;
+					}
+				}
+				// most events are not relevant, so only bind the ones that might be
+				String json = ra.getNextPlain();
+				if (!mightBeAppliedCompletion(json)) {
+					continue;
+				}
+				IDEEvent e = JsonUtils.fromJson(json, IDEEvent.class);
 				if (e instanceof CompletionEvent) {
 					CompletionEvent ce = (CompletionEvent) e;
 					if (ce.getTerminatedState() == TerminationState.Applied) {
@@ -272,6 +461,56 @@ public class BMNEvaluation {
 			return next != null;
 		}
 
+		/*
+		 * Cheap scan of the raw Json for the event type and the termination state.
+		 * Returns false only if the event is certainly irrelevant, unexpected
+		 * formatting results in a full deserialization.
+		 */
+		private static boolean mightBeAppliedCompletion(String json) {
+			int start = 0;
+			while (start < json.length() && Character.isWhitespace(json.charAt(start))) {
+				start++;
+			}
+			// the serializer always emits the type of the event as the first property
+			if (!json.startsWith("{\"$type\":\"", start)) {
+				return true;
+			}
+			int typeStart = start + 10;
+			int typeEnd = json.indexOf('"', typeStart);
+			if (typeEnd == -1) {
+				return true;
+			}
+			if (!json.regionMatches(typeStart, COMPLETION_EVENT_TYPE, 0, typeEnd - typeStart)
+					|| typeEnd - typeStart != COMPLETION_EVENT_TYPE.length()) {
+				return false;
+			}
+
+			// only the event itself has this property, nested objects do not
+			int statePos = json.lastIndexOf(TERMINATION_STATE_PROPERTY);
+			if (statePos == -1) {
+				return true;
+			}
+			int valStart = statePos + TERMINATION_STATE_PROPERTY.length();
+			while (valStart < json.length() && Character.isWhitespace(json.charAt(valStart))) {
+				valStart++;
+			}
+			if (valStart == json.length()) {
+				return true;
+			}
+			char c = json.charAt(valStart);
+			if (c == '"') {
+				return json.startsWith("\"Applied\"", valStart);
+			}
+			if (Character.isDigit(c)) {
+				int valEnd = valStart;
+				while (valEnd < json.length() && Character.isDigit(json.charAt(valEnd))) {
+					valEnd++;
+				}
+				return Integer.parseInt(json.substring(valStart, valEnd)) == TerminationState.Applied.ordinal();
+			}
+			return true;
+		}
+
 		@Override
 		public CompletionEvent next() {
 			Asserts.assertTrue(hasNext());
@@ -288,7 +527,13 @@ public class BMNEvaluation {
 	}
 
 	public Set<String> findEventZips() {
-		Set<String> relZips = new Directory(dirEvents).findFiles(s -> s.endsWith(".zip"));
-		return relZips.stream().map(n -> dirEvents + n).collect(Collectors.toSet());
+		if (eventIndex != null) {
+			// the index already knows all zips, no need to scan the folder again
+			return eventIndex.getZips().stream().map(n -> dirEvents + n)
+					.collect(Collectors.toCollection(LinkedHashSet::new));
+		}
+		// the largest zips come first, so they do not delay the end of the run
+		return DatasetScanner.findZips(dirEvents).stream().map(n -> dirEvents + n)
+				.collect(Collectors.toCollection(LinkedHashSet::new));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,249 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.rsse.calls;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.gson.GsonBuilder;
+
+import cc.kave.commons.assertions.Asserts;
+import cc.kave.commons.model.naming.types.ITypeName;
+
+/**
+ * Quality metrics of the {@link BMNEvaluation}, computed in a single pass over
+ * all queries. For every query, only the rank of the expected proposal is
+ * recorded, so the Top-K precision can be derived for any K afterwards. Next to
+ * the overall numbers, the same figures are kept per triggered type. Every
+ * worker records into its own instance, the results are merged afterwards.
+ */
+public class BMNEvaluationMetrics {
+
+	private static final int[] DEFAULT_REPORTED_K = { 1, 3, 5, 10 };
+
+	private final int[] reportedK;
+	private final Accumulator total = new Accumulator();
+	private final Map<ITypeName, Accumulator> perType = new HashMap<>();
+
+	public BMNEvaluationMetrics() {
+		this(DEFAULT_REPORTED_K);
+	}
+
+	/**
+	 * @param reportedK
+	 *            the Top-K values that are included in the reports
+	 */
+	public BMNEvaluationMetrics(int... reportedK) {
+		for (int k : reportedK) {
+			Asserts.assertTrue(k > 0);
+		}
+		this.reportedK = reportedK;
+	}
+
+	/**
+	 * @param rank
+	 *            the (1-based) position of the expected member in the proposals,
+	 *            or 0 if it has not been proposed at all
+	 */
+	public void record(ITypeName type, int numProposals, int rank) {
+		Asserts.assertTrue(rank >= 0 && rank <= numProposals);
+		total.record(numProposals, rank);
+		perType.computeIfAbsent(type, t -> new Accumulator()).record(numProposals, rank);
+	}
+
+	public void merge(BMNEvaluationMetrics other) {
+		total.merge(other.total);
+		for (Map.Entry<ITypeName, Accumulator> e : other.perType.entrySet()) {
+			perType.computeIfAbsent(e.getKey(), t -> new Accumulator()).merge(e.getValue());
+		}
+	}
+
+	public long getNumQueries() {
+		return total.numQueries;
+	}
+
+	/**
+	 * @return share of all queries, for which the expected member is among the
+	 *         first k proposals
+	 */
+	public double getTopK(int k) {
+		return total.getTopK(k);
+	}
+
+	/**
+	 * @return the mean reciprocal rank of the expected member, a miss counts as
+	 *         0
+	 */
+	public double getMRR() {
+		return total.getMRR();
+	}
+
+	/**
+	 * @return share of all queries, for which at least one proposal was made
+	 */
+	public double getCoverage() {
+		return total.getCoverage();
+	}
+
+	public String toJson() {
+		return new GsonBuilder().setPrettyPrinting().create().toJson(toReport());
+	}
+
+	Map<String, Object> toReport() {
+		Map<String, Object> report = toMap(total);
+		Map<String, Object> types = new LinkedHashMap<>();
+		for (ITypeName t : sortedTypes()) {
+			types.put(t.getIdentifier(), toMap(perType.get(t)));
+		}
+		report.put("types", types);
+		return report;
+	}
+
+	private Map<String, Object> toMap(Accumulator a) {
+		Map<String, Object> m = new LinkedHashMap<>();
+		m.put("queries", a.numQueries);
+		m.put("coverage", a.getCoverage());
+		m.put("mrr", a.getMRR());
+		for (int k : reportedK) {
+			m.put("top" + k, a.getTopK(k));
+		}
+		return m;
+	}
+
+	/**
+	 * one line per triggered type, the most frequent types first
+	 */
+	public String toCsv() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("type,queries,coverage,mrr");
+		for (int k : reportedK) {
+			sb.append(",top").append(k);
+		}
+		sb.append('\n');
+		for (ITypeName t : sortedTypes()) {
+			Accumulator a = perType.get(t);
+			// type identifiers contain commas
+			sb.append('"').append(t.getIdentifier().replace("\"", "\"\"")).append('"');
+			sb.append(',').append(a.numQueries);
+			sb.append(',').append(a.getCoverage());
+			sb.append(',').append(a.getMRR());
+			for (int k : reportedK) {
+				sb.append(',').append(a.getTopK(k));
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	public void writeJson(File f) {
+		write(f, toJson());
+	}
+
+	public void writeCsv(File f) {
+		write(f, toCsv());
+	}
+
+	private static void write(File f, String content) {
+		try {
+			FileUtils.writeStringToFile(f, content, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private List<ITypeName> sortedTypes() {
+		List<ITypeName> types = new ArrayList<>(perType.keySet());
+		types.sort((a, b) -> Long.compare(perType.get(b).numQueries, perType.get(a).numQueries));
+		return types;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("metrics for %d queries on %d types:\n", total.numQueries, perType.size()));
+		sb.append(String.format("  coverage: %.1f%%\n", total.getCoverage() * 100));
+		sb.append(String.format("  MRR: %.3f\n", total.getMRR()));
+		for (int k : reportedK) {
+			sb.append(String.format("  Top%d: %.1f%%\n", k, total.getTopK(k) * 100));
+		}
+		return sb.toString();
+	}
+
+	private static class Accumulator {
+		private long numQueries = 0;
+		private long numCovered = 0;
+		private double sumReciprocalRanks = 0;
+		// number of hits per rank, the first entry holds the hits on rank 1
+		private long[] hits = new long[16];
+
+		private void record(int numProposals, int rank) {
+			numQueries++;
+			if (numProposals > 0) {
+				numCovered++;
+			}
+			if (rank > 0) {
+				sumReciprocalRanks += 1d / rank;
+				ensureCapacity(rank);
+				hits[rank - 1]++;
+			}
+		}
+
+		private void merge(Accumulator other) {
+			numQueries += other.numQueries;
+			numCovered += other.numCovered;
+			sumReciprocalRanks += other.sumReciprocalRanks;
+			ensureCapacity(other.hits.length);
+			for (int i = 0; i < other.hits.length; i++) {
+				hits[i] += other.hits[i];
+			}
+		}
+
+		private void ensureCapacity(int numRanks) {
+			if (numRanks > hits.length) {
+				hits = Arrays.copyOf(hits, Math.max(numRanks, 2 * hits.length));
+			}
+		}
+
+		private double getTopK(int k) {
+			long numHits = 0;
+			for (int i = 0; i < Math.min(k, hits.length); i++) {
+				numHits += hits[i];
+			}
+			return share(numHits);
+		}
+
+		private double getMRR() {
+			return numQueries == 0 ? 0 : sumReciprocalRanks / numQueries;
+		}
+
+		private double getCoverage() {
+			return share(numCovered);
+		}
+
+		private double share(long n) {
+			return numQueries == 0 ? 0 : n / (double) numQueries;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.rsse.calls;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.GsonBuilder;
+
+import examples.LatencyHistogram;
+
+/**
+ * Instrumentation of the {@link BMNEvaluation}: latency histograms for the
+ * individual stages of evaluating an event and counters for the reasons why
+ * events are skipped. Every worker records into its own instance, the results
+ * are merged afterwards.
+ */
+public class BMNEvaluationStats {
+
+	public enum Stage {
+		TYPE_ERASURE, COMPLETION_INFO, HAS_MODEL, QUERY
+	}
+
+	public enum Filter {
+		NO_SELECTION, NO_COMPLETION_INFO, TYPE_COMPLETION, NO_MEMBER, STATIC_MEMBER, THIS, BASE, NO_TRIGGERED_TYPE,
+		UNKNOWN_TYPE, NO_MODEL
+	}
+
+	private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+	private final long[] filters = new long[Filter.values().length];
+	private long numEvents = 0;
+	private long numEvaluated = 0;
+
+	public BMNEvaluationStats() {
+		for (int i = 0; i < stages.length; i++) {
+			stages[i] = new LatencyHistogram();
+		}
+	}
+
+	public void countEvent() {
+		numEvents++;
+	}
+
+	public void countEvaluated() {
+		numEvaluated++;
+	}
+
+	public void count(Filter f) {
+		filters[f.ordinal()]++;
+	}
+
+	public void record(Stage s, long startNanos) {
+		stages[s.ordinal()].record(System.nanoTime() - startNanos);
+	}
+
+	public void merge(BMNEvaluationStats other) {
+		for (int i = 0; i < stages.length; i++) {
+			stages[i].merge(other.stages[i]);
+		}
+		for (int i = 0; i < filters.length; i++) {
+			filters[i] += other.filters[i];
+		}
+		numEvents += other.numEvents;
+		numEvaluated += other.numEvaluated;
+	}
+
+	public LatencyHistogram getLatencies(Stage s) {
+		return stages[s.ordinal()];
+	}
+
+	public long getCount(Filter f) {
+		return filters[f.ordinal()];
+	}
+
+	public String toJson() {
+		return new GsonBuilder().setPrettyPrinting().create().toJson(toReport());
+	}
+
+	Map<String, Object> toReport() {
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("events", numEvents);
+		report.put("evaluated", numEvaluated);
+
+		Map<String, Object> skipped = new LinkedHashMap<>();
+		for (Filter f : Filter.values()) {
+			skipped.put(f.name(), getCount(f));
+		}
+		report.put("skipped", skipped);
+
+		Map<String, Object> latencies = new LinkedHashMap<>();
+		for (Stage s : Stage.values()) {
+			LatencyHistogram h = getLatencies(s);
+			Map<String, Object> stage = new LinkedHashMap<>();
+			stage.put("count", h.getCount());
+			stage.put("totalMs", h.getTotal() / 1e6);
+			stage.put("meanUs", h.getMean() / 1e3);
+			stage.put("p50Us", h.getValueAtPercentile(50) / 1e3);
+			stage.put("p99Us", h.getValueAtPercentile(99) / 1e3);
+			stage.put("maxUs", h.getMax() / 1e3);
+			latencies.put(s.name(), stage);
+		}
+		report.put("latencies", latencies);
+		return report;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("evaluated %d of %d events\n", numEvaluated, numEvents));
+		for (Filter f : Filter.values()) {
+			sb.append(String.format("  skipped (%s): %d\n", f, getCount(f)));
+		}
+		for (Stage s : Stage.values()) {
+			LatencyHistogram h = getLatencies(s);
+			sb.append(String.format("  %s: %s, total=%.1fs\n", s, h, h.getTotal() / 1e9));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.rsse.calls;
+
+import static cc.kave.commons.utils.io.Logger.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.IOUtils;
+
+import cc.kave.commons.assertions.Asserts;
+import cc.kave.commons.model.events.IDEEvent;
+import cc.kave.commons.model.events.completionevents.CompletionEvent;
+import cc.kave.commons.model.events.completionevents.IProposal;
+import cc.kave.commons.model.naming.IName;
+import cc.kave.commons.utils.io.IReadingArchive;
+import cc.kave.commons.utils.io.json.JsonUtils;
+import cc.kave.rsse.calls.mining.Options;
+import examples.IoHelper;
+import examples.LatencyHistogram;
+
+/**
+ * Replays recorded {@link CompletionEvent}s against a {@link BMNServer} and
+ * measures the latency of every request, including the transfer over the local
+ * socket. The requests are serialized before the measurement starts, so the
+ * histogram only contains the time of the client-server roundtrip. The first
+ * requests of every worker warm up the server and are not recorded.
+ */
+public class BMNLoadGenerator {
+
+	private static final int NUM_WARMUP_REQUESTS = 100;
+
+	private final String dirEvents;
+	private final URL server;
+	private final int numThreads;
+	private final int maxRequests;
+
+	public BMNLoadGenerator(String dirEvents, URL server, int numThreads, int maxRequests) {
+		Asserts.assertTrue(numThreads > 0);
+		Asserts.assertTrue(maxRequests > 0);
+		this.dirEvents = dirEvents;
+		this.server = server;
+		this.numThreads = numThreads;
+		this.maxRequests = maxRequests;
+	}
+
+	/*
+	 * starts a server in the same process, so no additional setup is required
+	 */
+	public static LatencyHistogram runOffline(Options opts, String dirBmnModels, String dirEvents) {
+		try (BMNServer server = new BMNServer(opts, dirBmnModels, 0)) {
+			server.start();
+			URL url = new URL("http", "localhost", server.getPort(), BMNServer.QUERY_PATH);
+			return new BMNLoadGenerator(dirEvents, url, 1, 10000).run();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public LatencyHistogram run() {
+		List<byte[]> requests = readRequests();
+		log("replaying %d completion events with %d threads against %s ...", requests.size(), numThreads, server);
+
+		AtomicInteger next = new AtomicInteger();
+		AtomicInteger numErrors = new AtomicInteger();
+		long startedAt = System.currentTimeMillis();
+
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		LatencyHistogram histogram = new LatencyHistogram();
+		try {
+			List<Future<LatencyHistogram>> workers = new LinkedList<>();
+			for (int i = 0; i < numThreads; i++) {
+				workers.add(pool.submit(() -> replay(requests, next, numErrors)));
+			}
+			for (Future<LatencyHistogram> w : workers) {
+				histogram.merge(await(w));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		double secs = Math.max(System.currentTimeMillis() - startedAt, 1) / 1000d;
+		log("%d requests in %.1fs (%.1f requests/s), %d errors", histogram.getCount(), secs,
+				histogram.getCount() / secs, numErrors.get());
+		log("latency: %s", histogram);
+		for (double p : new double[] { 50, 75, 90, 95, 99, 99.9, 99.99, 100 }) {
+			log("  %7.3f%% <= %8.3f ms", p, histogram.getValueAtPercentile(p) / 1e6);
+		}
+		return histogram;
+	}
+
+	private LatencyHistogram replay(List<byte[]> requests, AtomicInteger next, AtomicInteger numErrors) {
+		LatencyHistogram h = new LatencyHistogram();
+		int numSent = 0;
+		int i;
+		while ((i = next.getAndIncrement()) < requests.size()) {
+			long start = System.nanoTime();
+			boolean isOk = send(requests.get(i));
+			long duration = System.nanoTime() - start;
+			if (!isOk) {
+				numErrors.incrementAndGet();
+			} else if (numSent++ >= NUM_WARMUP_REQUESTS) {
+				h.record(duration);
+			}
+		}
+		return h;
+	}
+
+	private boolean send(byte[] request) {
+		try {
+			HttpURLConnection con = (HttpURLConnection) server.openConnection();
+			con.setRequestMethod("POST");
+			con.setDoOutput(true);
+			con.setFixedLengthStreamingMode(request.length);
+			con.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+			try (OutputStream out = con.getOutputStream()) {
+				out.write(request);
+			}
+			int status = con.getResponseCode();
+			// the response has to be consumed completely to reuse the connection
+			try (InputStream in = status == 200 ? con.getInputStream() : con.getErrorStream()) {
+				if (in != null) {
+					IOUtils.toByteArray(in);
+				}
+			}
+			return status == 200;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private List<byte[]> readRequests() {
+		List<byte[]> requests = new ArrayList<>();
+		Set<String> zips = new TreeSet<>(IoHelper.findAllZips(dirEvents));
+		for (String zip : zips) {
+			try (IReadingArchive ra = IoHelper.openEvents(new File(dirEvents, zip))) {
+				while (ra.hasNext() && requests.size() < maxRequests) {
+					IDEEvent e = ra.getNext(IDEEvent.class);
+					if (!(e instanceof CompletionEvent)) {
+						continue;
+					}
+					CompletionEvent ce = (CompletionEvent) e;
+					if (ce.getContext() == null) {
+						continue;
+					}
+					List<IName> vsProposals = ce.getProposalCollection().stream().map(IProposal::getName)
+							.collect(Collectors.toList());
+					String json = JsonUtils.toJson(new BMNServer.Request(ce.getContext(), vsProposals));
+					requests.add(json.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			if (requests.size() >= maxRequests) {
+				break;
+			}
+		}
+		return requests;
+	}
+
+	private static <T> T await(Future<T> f) {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
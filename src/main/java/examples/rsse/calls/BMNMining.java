@@ -19,39 +19,85 @@ import static cc.kave.commons.utils.io.Logger.append;
 import static cc.kave.commons.utils.io.Logger.log;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
+import org.apache.commons.io.FileUtils;
+
+import cc.kave.commons.assertions.Asserts;
 import cc.kave.commons.model.events.completionevents.Context;
 import cc.kave.commons.model.naming.types.ITypeName;
-import cc.kave.commons.utils.io.Directory;
-import cc.kave.commons.utils.io.IReadingArchive;
 import cc.kave.commons.utils.io.Logger;
-import cc.kave.commons.utils.io.ReadingArchive;
-import cc.kave.commons.utils.naming.TypeErasure;
+import cc.kave.commons.utils.io.TypeFileNaming;
 import cc.kave.rsse.calls.UsageExtractor;
 import cc.kave.rsse.calls.UsageMining;
-import cc.kave.rsse.calls.UsageSorter;
 import cc.kave.rsse.calls.mining.Options;
 import cc.kave.rsse.calls.model.usages.IUsage;
 import cc.kave.rsse.calls.recs.bmn.BMNModel;
 import cc.kave.rsse.calls.recs.bmn.BMNModelStore;
+import examples.DatasetScanner;
+import examples.IoHelper;
+import examples.NameInterner;
+import examples.TypeErasureCache;
+import examples.ProgressReporter;
+import examples.IoHelper.ContextStream;
 
 public class BMNMining {
 
+	// off-heap memory that is used to buffer usages before they are sorted to disk
+	private static final long SORTING_BUDGET = 256L * 1024 * 1024;
+	// off-heap memory per worker that buffers the usages of a single zip in the
+	// incremental mode
+	private static final long ZIP_SORTING_BUDGET = 8L * 1024 * 1024;
+	private static final String ZIP_MANIFEST = "zips.manifest";
+	private static final int MAX_OPEN_ZIP_SORTERS = 256;
+	private static final TypeFileNaming TYPE_NAMING = new TypeFileNaming();
+
 	private final String dirContexts;
+	private final String dirBmnModels;
+	private final File dirIncremental;
 	private final Options opts;
+	private final int numThreads;
 
-	private final UsageSorter usageSorter;
+	private final TypeErasureCache erasure = new TypeErasureCache();
+	private final ShardedUsageSorter usageSorter;
 	private final BMNModelStore bmnModelStore;
+	private final MappedBMNModelStore mappedModelStore;
 
 	public BMNMining(Options opts, String dirContexts, String dirSortedUsages, String dirBmnModels) {
+		this(opts, dirContexts, dirSortedUsages, dirBmnModels, Runtime.getRuntime().availableProcessors());
+	}
+
+	public BMNMining(Options opts, String dirContexts, String dirSortedUsages, String dirBmnModels, int numThreads) {
+		Asserts.assertTrue(numThreads > 0);
 		this.opts = opts;
 		this.dirContexts = dirContexts;
-		usageSorter = new UsageSorter(dirSortedUsages, opts);
+		this.dirBmnModels = dirBmnModels;
+		this.numThreads = numThreads;
+		dirIncremental = new File(dirSortedUsages, opts + "-incremental");
+		usageSorter = new ShardedUsageSorter(dirSortedUsages, opts, SORTING_BUDGET);
 		bmnModelStore = new BMNModelStore(dirBmnModels, opts);
+		mappedModelStore = new MappedBMNModelStore(dirBmnModels, opts);
 	}
 
 	public void run() {
@@ -59,62 +105,298 @@ public class BMNMining {
 		clearAndMineModels();
 
 		append("\n\n");
+		log("%s", erasure);
+		log("done");
+	}
+
+	/**
+	 * Updates the models incrementally: only the context zips that are new or
+	 * that have changed since the last incremental run are processed and only
+	 * the types that have gained or lost usages are mined again. The first
+	 * incremental run processes all zips. The usages are kept per zip in a
+	 * separate folder next to the sorted usages, so the usages of a changed or
+	 * removed zip can be replaced.
+	 */
+	public void runIncremental() {
+		ContextZipManifest manifest = new ContextZipManifest(new File(dirIncremental, ZIP_MANIFEST));
+		if (!manifest.exists()) {
+			log("no previous incremental run found, mining all models from scratch");
+			bmnModelStore.clear();
+		}
+
+		Set<ITypeName> changedTypes = sortChangedUsages(manifest);
+		mineChangedModels(changedTypes, manifest);
+		// the manifest is only updated once all models are mined, so an aborted
+		// run is repeated completely
+		manifest.write();
+
+		append("\n\n");
+		log("%s", erasure);
 		log("done");
 	}
 
+	private Set<ITypeName> sortChangedUsages(ContextZipManifest manifest) {
+		log("Searching for zips in %s... ", dirContexts);
+		// the largest zips come first, so their hashing does not delay the end of the
+		// check
+		Set<String> zips = DatasetScanner.scan(dirContexts).stream().map(z -> z.relativePath)
+				.collect(Collectors.toCollection(LinkedHashSet::new));
+
+		Set<ITypeName> changedTypes = new HashSet<>();
+		int numRemoved = 0;
+		for (String zip : new ArrayList<>(manifest.getZips())) {
+			if (!zips.contains(zip)) {
+				changedTypes.addAll(manifest.remove(zip).types);
+				deleteUsages(zip);
+				numRemoved++;
+			}
+		}
+		// cheap pre-check, only zips with a different size or modification time
+		// need to be hashed
+		List<String> candidates = zips.stream()
+				.filter(zip -> !ContextZipManifest.isUnmodified(manifest.get(zip), new File(dirContexts, zip)))
+				.collect(Collectors.toList());
+		append("found %d zips (%d to check, %d removed)", zips.size(), candidates.size(), numRemoved);
+
+		ProgressReporter progress = new ProgressReporter("checking zips", "zips", candidates.size(), "changed",
+				"usages");
+		LongAdder numChanged = progress.counter("changed");
+		LongAdder numUsages = progress.counter("usages");
+
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<ZipUpdate>> tasks = new LinkedList<>();
+			for (String zip : candidates) {
+				ContextZipManifest.Entry old = manifest.get(zip);
+				tasks.add(pool.submit(() -> updateUsages(zip, old)));
+			}
+			for (Future<ZipUpdate> task : tasks) {
+				ZipUpdate u = await(task);
+				progress.step();
+				if (u.isChanged) {
+					ContextZipManifest.Entry old = manifest.get(u.zip);
+					if (old != null) {
+						changedTypes.addAll(old.types);
+					}
+					changedTypes.addAll(u.entry.types);
+					numUsages.add(u.numUsages);
+					numChanged.increment();
+					if (ProgressReporter.isVerbose()) {
+						log("%s %s (%d usages)", old == null ? "added" : "updated", u.zip, u.numUsages);
+					}
+				}
+				manifest.put(u.zip, u.entry);
+			}
+		} finally {
+			pool.shutdownNow();
+			progress.close();
+		}
+
+		log("sorted %d usages of %d new or changed zips, %d types are affected", numUsages.sum(), numChanged.sum(),
+				changedTypes.size());
+		return changedTypes;
+	}
+
+	private ZipUpdate updateUsages(String zip, ContextZipManifest.Entry old) {
+		File file = new File(dirContexts, zip);
+		long size = file.length();
+		long lastModified = file.lastModified();
+		String hash = ContextZipManifest.hash(file);
+		if (old != null && old.hash.equals(hash)) {
+			// touched, but the content is the same
+			return new ZipUpdate(zip, new ContextZipManifest.Entry(size, lastModified, hash, old.types), false, 0);
+		}
+
+		ShardedUsageSorter sorter = usagesOf(zip);
+		sorter.clear();
+		ExtractedUsages eu = extractUsages(file.getPath());
+		int numUsages = 0;
+		for (List<IUsage> usages : eu.usages) {
+			sorter.store(usages);
+			numUsages += usages.size();
+		}
+		sorter.flush();
+		ContextZipManifest.Entry entry = new ContextZipManifest.Entry(size, lastModified, hash,
+				sorter.registeredTypes());
+		return new ZipUpdate(zip, entry, true, numUsages);
+	}
+
+	private ShardedUsageSorter usagesOf(String zip) {
+		return new ShardedUsageSorter(usageDirOf(zip), ZIP_SORTING_BUDGET);
+	}
+
+	private File usageDirOf(String zip) {
+		return new File(new File(dirIncremental, "usages"), zip + ".usages");
+	}
+
+	private void deleteUsages(String zip) {
+		try {
+			FileUtils.deleteDirectory(usageDirOf(zip));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static class ZipUpdate {
+		private final String zip;
+		private final ContextZipManifest.Entry entry;
+		private final boolean isChanged;
+		private final int numUsages;
+
+		private ZipUpdate(String zip, ContextZipManifest.Entry entry, boolean isChanged, int numUsages) {
+			this.zip = zip;
+			this.entry = entry;
+			this.isChanged = isChanged;
+			this.numUsages = numUsages;
+		}
+	}
+
+	private void mineChangedModels(Set<ITypeName> changedTypes, ContextZipManifest manifest) {
+		log("Re-mining %d types ... ", changedTypes.size());
+
+		// the zips that contain each changed type, in the order of the manifest
+		Map<ITypeName, List<String>> zipsOf = new HashMap<>();
+		for (String zip : manifest.getZips()) {
+			for (ITypeName t : manifest.get(zip).types) {
+				if (changedTypes.contains(t)) {
+					zipsOf.computeIfAbsent(t, k -> new ArrayList<>()).add(zip);
+				}
+			}
+		}
+
+		// only the indices of the most recently read zips are kept open
+		Map<String, ShardedUsageSorter> sorters = new LinkedHashMap<String, ShardedUsageSorter>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ShardedUsageSorter> eldest) {
+				return size() > MAX_OPEN_ZIP_SORTERS;
+			}
+		};
+		Function<ITypeName, List<IUsage>> reader = t -> {
+			List<IUsage> usages = new LinkedList<>();
+			for (String zip : zipsOf.getOrDefault(t, Collections.emptyList())) {
+				ShardedUsageSorter sorter;
+				synchronized (sorters) {
+					sorter = sorters.get(zip);
+				}
+				if (sorter == null) {
+					sorter = usagesOf(zip);
+					synchronized (sorters) {
+						sorters.put(zip, sorter);
+					}
+				}
+				usages.addAll(sorter.read(t));
+			}
+			return usages;
+		};
+		// the number of zips that contain a type is a cheap estimate of its size
+		ToIntFunction<ITypeName> weight = t -> zipsOf.getOrDefault(t, Collections.emptyList()).size();
+
+		mineModels(changedTypes, weight, reader);
+	}
+
 	private void clearAndSortUsages() {
 		usageSorter.clear();
 
 		log("Searching for zips in %s... ", dirContexts);
-		Set<String> zips = findContextZips();
+		List<String> zips = findContextZips();
 		int total = zips.size();
 		append("found %d zips", total);
 
-		int cur = 0;
-		for (String zip : zips) {
-			double perc = 100 * ++cur / (double) total;
-			log("###");
-			log("### (%d/%d, %.1f%% started) --  opening %s ... ", cur, total, perc, zip);
+		ProgressReporter progress = new ProgressReporter("sorting usages", "zips", total, "contexts", "usages",
+				"filtered");
 
-			List<Context> ctxs = readCtxs(zip);
-			append("(%d contexts)", ctxs.size());
-			log("###\n");
+		// the zips are read and processed by a pool of workers, but the results are
+		// stored in the original order of the zips to keep the sorted usages
+		// independent of the scheduling. Only a limited number of zips is processed
+		// ahead of the storage to keep the memory consumption in check.
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			LinkedList<Future<ExtractedUsages>> pending = new LinkedList<>();
+			Iterator<String> it = zips.iterator();
+			while (it.hasNext() || !pending.isEmpty()) {
+				while (it.hasNext() && pending.size() < 2 * numThreads) {
+					String zip = it.next();
+					pending.add(pool.submit(() -> extractUsages(zip)));
+				}
+				ExtractedUsages eu = await(pending.removeFirst());
+				store(eu, progress);
+			}
+			usageSorter.flush();
+		} finally {
+			pool.shutdownNow();
+			progress.close();
+		}
+	}
 
-			try {
-				usageSorter.openLRUCache();
-				for (Context ctx : ctxs) {
-					ctx = TypeErasure.of(ctx); // remove bindings of generic types
+	private ExtractedUsages extractUsages(String zip) {
+		ExtractedUsages eu = new ExtractedUsages(zip);
+		// contexts are streamed, only the (much smaller) usages are kept per zip
+		try (ContextStream ctxs = IoHelper.stream(zip, BMNMining::shouldProcess)) {
+			for (Context ctx : ctxs) {
+				ctx = erasure.of(ctx); // remove bindings of generic types
 
-					UsageExtractor ue = new UsageExtractor(ctx);
-					List<IUsage> usages = ue.getUsages();
-					List<IUsage> filtered = filter(usages);
+				UsageExtractor ue = new UsageExtractor(ctx);
+				List<IUsage> usages = ue.getUsages();
+				List<IUsage> filtered = filter(usages);
 
-					append("%d:%d, ", usages.size(), filtered.size());
-					usageSorter.store(usages);
-				}
-				log("");
-			} finally {
-				usageSorter.close();
+				eu.usages.add(usages);
+				eu.numFiltered.add(filtered.size());
 			}
 		}
+		return eu;
 	}
 
-	private Set<String> findContextZips() {
-		Set<String> relZips = new Directory(dirContexts).findFiles(s -> s.endsWith(".zip"));
-		return relZips.stream().map(n -> dirContexts + n).collect(Collectors.toSet());
-	}
+	private void store(ExtractedUsages eu, ProgressReporter progress) {
+		boolean isVerbose = ProgressReporter.isVerbose();
+		if (isVerbose) {
+			log("### %s (%d contexts)", eu.zip, eu.usages.size());
+		}
 
-	private static List<Context> readCtxs(String zip) {
-		File f = new File(zip);
-		List<Context> ctxs = new LinkedList<>();
-		try (IReadingArchive ra = new ReadingArchive(f)) {
-			for (Context ctx : ra.getAll(Context.class)) {
-				if (shouldProcess(ctx)) {
-					ctxs.add(ctx);
-				}
+		LongAdder numUsages = progress.counter("usages");
+		LongAdder numFiltered = progress.counter("filtered");
+		for (int i = 0; i < eu.usages.size(); i++) {
+			List<IUsage> usages = eu.usages.get(i);
+			if (isVerbose) {
+				append("%d:%d, ", usages.size(), eu.numFiltered.get(i));
 			}
+			usageSorter.store(usages);
+			numUsages.add(usages.size());
+			numFiltered.add(eu.numFiltered.get(i));
 		}
-		return ctxs;
+		progress.counter("contexts").add(eu.usages.size());
+		progress.step();
+	}
+
+	private static <T> T await(Future<T> f) {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private static class ExtractedUsages {
+		private final String zip;
+		private final List<List<IUsage>> usages = new ArrayList<>();
+		private final List<Integer> numFiltered = new ArrayList<>();
+
+		private ExtractedUsages(String zip) {
+			this.zip = zip;
+		}
+	}
+
+	/*
+	 * the largest zips come first, so they do not delay the end of the run. The
+	 * listing is not cached, every call walks the folder again.
+	 */
+	private List<String> findContextZips() {
+		return DatasetScanner.scan(dirContexts).stream().map(z -> dirContexts + z.relativePath)
+				.collect(Collectors.toList());
 	}
 
 	private static boolean shouldProcess(Context ctx) {
@@ -151,36 +433,91 @@ public class BMNMining {
 
 		log("Finding types ... ");
 		Set<ITypeName> types = usageSorter.registeredTypes();
+		log("found %d types", types.size());
+
+		mineModels(types, usageSorter::getNumUsages, usageSorter::read);
+	}
+
+	private void mineModels(Collection<ITypeName> types, ToIntFunction<ITypeName> weight,
+			Function<ITypeName, List<IUsage>> reader) {
 		int total = types.size();
-		log("found %d types", total);
 
-		int cur = 0;
-		for (ITypeName t : types) {
-			double perc = 100 * ++cur / (double) total;
-			log("## (%d/%d, %.1f%% started) -- mining  %s", cur, total, perc, t);
+		// types are independent and mined in parallel. The heaviest types are
+		// scheduled first, so a single huge type does not end up as the straggler.
+		List<ITypeName> sortedTypes = new ArrayList<>(types);
+		sortedTypes.sort(Comparator.comparingInt(weight).reversed());
 
-			List<IUsage> usages = usageSorter.read(t);
-			append(" (%d usages)", usages.size());
+		ProgressReporter progress = new ProgressReporter("mining models", "types", total, "usages", "models");
 
-			if (usages.size() == 0) {
-				log("Ignoring type.");
-				continue;
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<?>> tasks = new LinkedList<>();
+			for (ITypeName t : sortedTypes) {
+				tasks.add(pool.submit(() -> mine(t, reader, progress)));
+			}
+			for (Future<?> task : tasks) {
+				await(task);
 			}
+		} finally {
+			pool.shutdownNow();
+			progress.close();
+		}
+	}
+
+	private void mine(ITypeName t, Function<ITypeName, List<IUsage>> reader, ProgressReporter progress) {
+		long startedAt = System.currentTimeMillis();
+		List<IUsage> usages = reader.apply(t);
+		// all usages of a type are kept in memory while it is mined, sharing their
+		// names roughly divides their size by three. The names are only shared
+		// within the usages of the type, so they are released together with them.
+		NameInterner typeNames = new NameInterner();
+		for (IUsage u : usages) {
+			typeNames.intern(u);
+		}
 
+		String result;
+		if (usages.size() == 0) {
+			result = "Ignoring type.";
+			// a type might have lost all of its usages in an incremental run
+			removeModel(t);
+		} else {
 			// actually mine the models from all usages of a given type
 			BMNModel bmnModel = UsageMining.mineBMN(usages, opts);
 
 			if (bmnModel.table.getBMNTable().length == 0) {
 				Logger.debug("Ignoring empty model.");
+				result = "empty model";
+				removeModel(t);
 			} else {
-				logModelSize(bmnModel);
-				bmnModelStore.store(t, bmnModel);
+				result = String.format("model is %.1f MB", bmnModel.table.getSize() / (1024d * 1024d));
+				// the store is not meant to be used concurrently
+				synchronized (bmnModelStore) {
+					bmnModelStore.store(t, bmnModel);
+				}
+				// the same model in the format that can be memory-mapped for queries
+				mappedModelStore.store(t, bmnModel);
+				progress.counter("models").increment();
 			}
 		}
+
+		progress.counter("usages").add(usages.size());
+		progress.step();
+		if (ProgressReporter.isVerbose()) {
+			double secs = Math.max(System.currentTimeMillis() - startedAt, 1) / 1000d;
+			// a single log statement per type, to prevent interleaving of the workers
+			log("mined %s (%d usages in %.1fs, %.1f usages/s) --> %s", t, usages.size(), secs, usages.size() / secs,
+					result);
+		}
 	}
 
-	private static void logModelSize(BMNModel m) {
-		double mb = 1024 * 1024;
-		append(" --> model is %.1f MB", m.table.getSize() / mb);
+	private void removeModel(ITypeName t) {
+		// the store does not support the removal of single models, so the file is
+		// resolved in the same way as in the BMNModelStore
+		File baseDir = new File(dirBmnModels, opts.toString());
+		File model = new File(baseDir, TYPE_NAMING.getRelativePath(t) + ".json");
+		synchronized (bmnModelStore) {
+			model.delete();
+		}
+		mappedModelStore.remove(t);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.rsse.calls;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cc.kave.commons.assertions.Asserts;
+import cc.kave.commons.model.naming.types.ITypeName;
+import cc.kave.rsse.calls.IModelStore;
+import cc.kave.rsse.calls.recs.bmn.BMNModel;
+import cc.kave.rsse.calls.recs.bmn.BMNModelStore;
+
+/**
+ * Keeps recently used models of a {@link BMNModelStore} in memory. The Json
+ * models are converted once into the bit-packed format of the
+ * {@link MappedBMNModel} (on the heap), so they take an eighth of the memory of
+ * their tables and can be queried by the {@link MappedBMNRecommender}. The
+ * cache is bounded by the accumulated size of all cached models, the least
+ * recently used models are evicted first.
+ */
+public class BMNModelCache implements IModelStore<BMNModel>, MappedBMNModelSource {
+
+	private final BMNModelStore store;
+	private final long maxBytes;
+
+	private final LinkedHashMap<ITypeName, MappedBMNModel> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private long cachedBytes = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long loadNanos = 0;
+
+	public BMNModelCache(BMNModelStore store, long maxBytes) {
+		Asserts.assertTrue(maxBytes > 0);
+		this.store = store;
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	public boolean hasModel(ITypeName t) {
+		synchronized (this) {
+			if (cache.containsKey(t)) {
+				return true;
+			}
+		}
+		return store.hasModel(t);
+	}
+
+	/*
+	 * decodes the cached model, only meant for compatibility with components that
+	 * require a BMNModel
+	 */
+	@Override
+	public BMNModel getModel(ITypeName t) {
+		return getMappedModel(t).toBMNModel();
+	}
+
+	@Override
+	public MappedBMNModel getMappedModel(ITypeName t) {
+		synchronized (this) {
+			MappedBMNModel m = cache.get(t);
+			if (m != null) {
+				hits++;
+				return m;
+			}
+			misses++;
+		}
+
+		// models are loaded outside of the lock, concurrent misses for the same type
+		// might load it twice, but do not block lookups of other types
+		long start = System.nanoTime();
+		MappedBMNModel m = MappedBMNModel.of(store.getModel(t));
+		long duration = System.nanoTime() - start;
+
+		synchronized (this) {
+			loadNanos += duration;
+			if (!cache.containsKey(t)) {
+				cache.put(t, m);
+				cachedBytes += sizeOf(m);
+				evict();
+			}
+		}
+		return m;
+	}
+
+	@Override
+	public void store(ITypeName t, BMNModel m) {
+		store.store(t, m);
+		synchronized (this) {
+			MappedBMNModel old = cache.remove(t);
+			if (old != null) {
+				cachedBytes -= sizeOf(old);
+			}
+		}
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<ITypeName, MappedBMNModel>> it = cache.entrySet().iterator();
+		// the most recent model is always kept, even if it exceeds the budget alone
+		while (cachedBytes > maxBytes && cache.size() > 1) {
+			MappedBMNModel m = it.next().getValue();
+			it.remove();
+			cachedBytes -= sizeOf(m);
+			evictions++;
+		}
+	}
+
+	private static long sizeOf(MappedBMNModel m) {
+		return m.getSize();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getLoadTimeMillis() {
+		return loadNanos / 1000000;
+	}
+
+	public synchronized int getNumCachedModels() {
+		return cache.size();
+	}
+
+	public synchronized long getCachedBytes() {
+		return cachedBytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		double mb = 1024 * 1024;
+		long total = hits + misses;
+		double hitRatio = total == 0 ? 0 : hits / (double) total;
+		return String.format(
+				"BMNModelCache (%d models, %.1f/%.1f MB, %d hits, %d misses, %.1f%% hit ratio, %d evictions, %d ms loading)",
+				cache.size(), cachedBytes / mb, maxBytes / mb, hits, misses, hitRatio * 100, evictions,
+				loadNanos / 1000000);
+	}
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.rsse.calls;
+
+import static cc.kave.commons.utils.io.Logger.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.gson.reflect.TypeToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import cc.kave.commons.assertions.Asserts;
+import cc.kave.commons.model.events.completionevents.Context;
+import cc.kave.commons.model.naming.IName;
+import cc.kave.commons.model.naming.codeelements.IMemberName;
+import cc.kave.commons.model.naming.types.ITypeName;
+import cc.kave.commons.utils.io.json.JsonUtils;
+import cc.kave.rsse.calls.UsageExtractor;
+import cc.kave.rsse.calls.mining.FeatureExtractor;
+import cc.kave.rsse.calls.mining.Options;
+import cc.kave.rsse.calls.model.usages.IUsage;
+import cc.kave.rsse.calls.recs.bmn.BMNModelStore;
+import examples.TypeErasureCache;
+
+/**
+ * Long-running service that answers BMN queries over HTTP. A query is POSTed
+ * to {@link #QUERY_PATH} as the Json of a {@link Request} (the {@link Context}
+ * of the completion and the proposals of Visual Studio) and is answered with
+ * the Json of a list of {@link Proposal}s, ordered by probability.
+ * 
+ * The server only binds to the loopback interface. Models are loaded on their
+ * first use and stay available for the lifetime of the server: mapped models
+ * stay mapped, Json models are kept in a {@link BMNModelCache}. Which kind of
+ * model exists for a type, if any, is only looked up once, so the model folder
+ * must not change while the server is running. Failed queries are answered
+ * with a Json object that contains the error, e.g., {"error": "..."}.
+ */
+public class BMNServer implements Closeable {
+
+	public static final String QUERY_PATH = "/query";
+	public static final Type RESPONSE_TYPE = new TypeToken<List<Proposal>>() {
+	}.getType();
+
+	private static final long DEFAULT_CACHE_SIZE = 1024L * 1024 * 1024; // 1GB
+	private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+	private final HttpServer server;
+	private final ExecutorService pool;
+
+	private final BMNModelCache bmnModelStore;
+	private final MappedBMNRecommender bmnRec;
+	private final MappedBMNModelStore mappedModelStore;
+	private final MappedBMNRecommender mappedRec;
+	// the recommender for the model of each queried type, empty if there is none
+	private final Map<ITypeName, Optional<MappedBMNRecommender>> recommenders = new ConcurrentHashMap<>();
+	private final TypeErasureCache erasure = new TypeErasureCache();
+
+	public BMNServer(Options opts, String dirBmnModels, int port) {
+		this(opts, dirBmnModels, port, DEFAULT_CACHE_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+
+	/*
+	 * port 0 selects a free port, see getPort()
+	 */
+	public BMNServer(Options opts, String dirBmnModels, int port, long maxCachedModelBytes, int numThreads) {
+		Asserts.assertTrue(numThreads > 0);
+		bmnModelStore = new BMNModelCache(new BMNModelStore(dirBmnModels, opts), maxCachedModelBytes);
+		bmnRec = new MappedBMNRecommender(new FeatureExtractor(opts), bmnModelStore, opts);
+		mappedModelStore = new MappedBMNModelStore(dirBmnModels, opts);
+		mappedRec = new MappedBMNRecommender(new FeatureExtractor(opts), mappedModelStore, opts);
+
+		// small responses would otherwise be delayed by Nagle's algorithm, which
+		// dominates the latency. The JDK reads the property when the first server is
+		// created, so an explicit setting on the command line takes precedence.
+		if (System.getProperty(NODELAY_PROPERTY) == null) {
+			System.setProperty(NODELAY_PROPERTY, "true");
+		}
+		try {
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		pool = Executors.newFixedThreadPool(numThreads);
+		server.setExecutor(pool);
+		server.createContext(QUERY_PATH, this::handle);
+	}
+
+	public void start() {
+		server.start();
+		log("BMN server is listening on http://%s:%d%s", server.getAddress().getHostString(), getPort(),
+				QUERY_PATH);
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		pool.shutdownNow();
+		log("BMN server stopped (%s, %s)", bmnModelStore, erasure);
+	}
+
+	private void handle(HttpExchange ex) throws IOException {
+		try {
+			if (!"POST".equals(ex.getRequestMethod())) {
+				ex.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] body;
+			int status;
+			try {
+				Request req = JsonUtils.fromJson(ex.getRequestBody(), Request.class);
+				body = JsonUtils.toJson(query(req.context, req.proposals), RESPONSE_TYPE)
+						.getBytes(StandardCharsets.UTF_8);
+				status = 200;
+			} catch (RuntimeException e) {
+				body = JsonUtils.toJson(Collections.singletonMap("error", String.valueOf(e)))
+						.getBytes(StandardCharsets.UTF_8);
+				status = 500;
+			}
+			ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			ex.sendResponseHeaders(status, body.length);
+			try (OutputStream out = ex.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			ex.close();
+		}
+	}
+
+	/*
+	 * the proposals of Visual Studio are accepted for compatibility with the
+	 * recommender interface, but the BMN recommender does not use them
+	 */
+	public List<Proposal> query(Context ctx, List<IName> vsProposals) {
+		ctx = erasure.of(ctx); // remove bindings of generic types
+
+		List<Proposal> res = new ArrayList<>();
+		UsageExtractor ue = new UsageExtractor(ctx);
+		if (!ue.hasQuery()) {
+			return res;
+		}
+		IUsage query = ue.getQuery();
+		ITypeName t = query.getType();
+
+		Optional<MappedBMNRecommender> rec = recommenders.computeIfAbsent(t, this::recommenderFor);
+		if (!rec.isPresent()) {
+			return res;
+		}
+		for (Pair<IMemberName, Double> p : rec.get().query(query)) {
+			res.add(new Proposal(p.getKey(), p.getValue()));
+		}
+		return res;
+	}
+
+	private Optional<MappedBMNRecommender> recommenderFor(ITypeName t) {
+		if (mappedModelStore.hasModel(t)) {
+			return Optional.of(mappedRec);
+		}
+		if (bmnModelStore.hasModel(t)) {
+			return Optional.of(bmnRec);
+		}
+		return Optional.empty();
+	}
+
+	public static class Request {
+		public Context context;
+		public List<IName> proposals = new ArrayList<>();
+
+		public Request() {
+			// for deserialization
+		}
+
+		public Request(Context context, List<IName> proposals) {
+			this.context = context;
+			this.proposals = proposals;
+		}
+	}
+
+	public static class Proposal {
+		public IMemberName name;
+		public double probability;
+
+		public Proposal() {
+			// for deserialization
+		}
+
+		public Proposal(IMemberName name, double probability) {
+			this.name = name;
+			this.probability = probability;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s (%.1f%%)", name, probability * 100);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.rsse.calls;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import cc.kave.commons.model.naming.types.ITypeName;
+import cc.kave.commons.utils.io.json.JsonUtils;
+
+/**
+ * Remembers which context zips have already been processed by an incremental
+ * mining run. For every zip (identified by its path relative to the contexts
+ * folder), the manifest stores size, modification time and content hash, as
+ * well as the types for which the zip has contributed usages.
+ */
+public class ContextZipManifest {
+
+	private static final int MAGIC = 0x4B5A4D31; // "KZM1"
+
+	private final File file;
+	private final Map<String, Entry> entries = new TreeMap<>();
+
+	public ContextZipManifest(File file) {
+		this.file = file;
+		if (file.exists()) {
+			read();
+		}
+	}
+
+	public boolean exists() {
+		return file.exists();
+	}
+
+	public Set<String> getZips() {
+		return entries.keySet();
+	}
+
+	public Entry get(String zip) {
+		return entries.get(zip);
+	}
+
+	public void put(String zip, Entry e) {
+		entries.put(zip, e);
+	}
+
+	public Entry remove(String zip) {
+		return entries.remove(zip);
+	}
+
+	public void write() {
+		file.getParentFile().mkdirs();
+		// write to a temp file first, an interrupted run must not leave a broken
+		// manifest behind
+		File tmp = new File(file.getAbsolutePath() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(entries.size());
+				for (Map.Entry<String, Entry> e : entries.entrySet()) {
+					Entry entry = e.getValue();
+					out.writeUTF(e.getKey());
+					out.writeLong(entry.size);
+					out.writeLong(entry.lastModified);
+					out.writeUTF(entry.hash);
+					out.writeInt(entry.types.size());
+					for (ITypeName t : entry.types) {
+						out.writeUTF(JsonUtils.toJson(t, ITypeName.class));
+					}
+				}
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void read() {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("unknown manifest format: " + file);
+			}
+			int numEntries = in.readInt();
+			for (int i = 0; i < numEntries; i++) {
+				String zip = in.readUTF();
+				long size = in.readLong();
+				long lastModified = in.readLong();
+				String hash = in.readUTF();
+				Set<ITypeName> types = new LinkedHashSet<>();
+				int numTypes = in.readInt();
+				for (int j = 0; j < numTypes; j++) {
+					types.add(JsonUtils.fromJson(in.readUTF(), ITypeName.class));
+				}
+				entries.put(zip, new Entry(size, lastModified, hash, types));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/*
+	 * size and modification time are only a cheap pre-check, a zip is
+	 * considered to be changed when its content hash differs
+	 */
+	public static boolean isUnmodified(Entry e, File zip) {
+		return e != null && e.size == zip.length() && e.lastModified == zip.lastModified();
+	}
+
+	public static String hash(File zip) {
+		try (InputStream in = new FileInputStream(zip)) {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] buf = new byte[1 << 16];
+			int len;
+			while ((len = in.read(buf)) != -1) {
+				md.update(buf, 0, len);
+			}
+			StringBuilder sb = new StringBuilder();
+			for (byte b : md.digest()) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (IOException | NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static class Entry {
+		public final long size;
+		public final long lastModified;
+		public final String hash;
+		public final Set<ITypeName> types;
+
+		public Entry(long size, long lastModified, String hash, Set<ITypeName> types) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+			this.types = types;
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.rsse.calls;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import cc.kave.commons.utils.io.json.JsonUtils;
+import cc.kave.rsse.calls.model.Dictionary;
+import cc.kave.rsse.calls.model.features.IFeature;
+import cc.kave.rsse.calls.recs.bmn.BMNModel;
+import cc.kave.rsse.calls.recs.bmn.Table;
+
+/**
+ * A {@link BMNModel} that is read directly from a memory-mapped file. The table
+ * is stored column by column, every column is a bitset over all rows that is
+ * packed into longs. A table of n cells takes n/8 bytes instead of the n bytes
+ * of a boolean[][] (and much less than the Json of the {@link BMNModel}) and
+ * the columns of a query can be matched against 64 rows at once. Opening a
+ * model only maps the file, the dictionary is decoded when it is first accessed
+ * and the table is never decoded at all.
+ * 
+ * The file consists of a fixed header (magic, version, number of rows, number
+ * of columns, words per column, length of the dictionary), the dictionary (the
+ * Json of every feature), the frequencies of all rows, and the packed columns.
+ * Frequencies and columns are aligned to 8 bytes.
+ */
+public class MappedBMNModel {
+
+	private static final int MAGIC = 0x424D4E58; // "BMNX"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 24;
+
+	private final ByteBuffer buf;
+	private final int numRows;
+	private final int numColumns;
+	private final int wordsPerColumn;
+	private final int dictionaryOffset;
+	private final int frequenciesOffset;
+	private final int columnsOffset;
+
+	private volatile List<IFeature> dictionary;
+
+	private MappedBMNModel(ByteBuffer buf) {
+		this.buf = buf;
+		if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+			throw new RuntimeException("unknown model format");
+		}
+		numRows = buf.getInt(8);
+		numColumns = buf.getInt(12);
+		wordsPerColumn = buf.getInt(16);
+		int dictionaryLength = buf.getInt(20);
+		dictionaryOffset = HEADER_SIZE;
+		frequenciesOffset = align(dictionaryOffset + dictionaryLength);
+		columnsOffset = align(frequenciesOffset + 4 * numRows);
+	}
+
+	public static MappedBMNModel open(File file) {
+		// the mapping stays valid after the channel has been closed
+		try (FileChannel fc = new RandomAccessFile(file, "r").getChannel()) {
+			return new MappedBMNModel(fc.map(MapMode.READ_ONLY, 0, fc.size()));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/*
+	 * creates the same representation on the heap, without a file
+	 */
+	public static MappedBMNModel of(BMNModel model) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(baos)) {
+			write(model, out);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return new MappedBMNModel(ByteBuffer.wrap(baos.toByteArray()));
+	}
+
+	public static void write(BMNModel model, File file) {
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getAbsolutePath() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+				write(model, out);
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void write(BMNModel model, DataOutputStream out) throws IOException {
+		boolean[][] table = model.table.getBMNTable();
+		int[] frequencies = model.table.getFrequencies();
+		int numColumns = model.dictionary.size();
+		int wordsPerColumn = (table.length + 63) / 64;
+
+		List<byte[]> features = new ArrayList<>();
+		int dictionaryLength = 0;
+		for (int i = 0; i < numColumns; i++) {
+			byte[] json = JsonUtils.toJson(model.dictionary.getEntry(i), IFeature.class)
+					.getBytes(StandardCharsets.UTF_8);
+			features.add(json);
+			dictionaryLength += 4 + json.length;
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(table.length);
+		out.writeInt(numColumns);
+		out.writeInt(wordsPerColumn);
+		out.writeInt(dictionaryLength);
+		for (byte[] json : features) {
+			out.writeInt(json.length);
+			out.write(json);
+		}
+		pad(out);
+		for (int row = 0; row < table.length; row++) {
+			out.writeInt(frequencies[row]);
+		}
+		pad(out);
+		for (int col = 0; col < numColumns; col++) {
+			for (int w = 0; w < wordsPerColumn; w++) {
+				long word = 0;
+				for (int bit = 0; bit < 64 && w * 64 + bit < table.length; bit++) {
+					if (table[w * 64 + bit][col]) {
+						word |= 1L << bit;
+					}
+				}
+				out.writeLong(word);
+			}
+		}
+	}
+
+	private static int align(int offset) {
+		return (offset + 7) & ~7;
+	}
+
+	private static void pad(DataOutputStream out) throws IOException {
+		while (out.size() % 8 != 0) {
+			out.writeByte(0);
+		}
+	}
+
+	public int getNumRows() {
+		return numRows;
+	}
+
+	public int getNumColumns() {
+		return numColumns;
+	}
+
+	public int getWordsPerColumn() {
+		return wordsPerColumn;
+	}
+
+	public int getFrequency(int row) {
+		return buf.getInt(frequenciesOffset + 4 * row);
+	}
+
+	/*
+	 * bit i of word w is row 64*w+i, unused bits of the last word are zero
+	 */
+	public long getColumnWord(int column, int word) {
+		return buf.getLong(columnsOffset + 8 * (column * wordsPerColumn + word));
+	}
+
+	public boolean isSet(int row, int column) {
+		return (getColumnWord(column, row >>> 6) & (1L << row)) != 0;
+	}
+
+	public IFeature getFeature(int column) {
+		return getDictionary().get(column);
+	}
+
+	public List<IFeature> getDictionary() {
+		List<IFeature> d = dictionary;
+		if (d == null) {
+			// concurrent first accesses might decode it twice, which is harmless
+			d = decodeDictionary();
+			dictionary = d;
+		}
+		return d;
+	}
+
+	private List<IFeature> decodeDictionary() {
+		List<IFeature> d = new ArrayList<>(numColumns);
+		int pos = dictionaryOffset;
+		for (int i = 0; i < numColumns; i++) {
+			int len = buf.getInt(pos);
+			byte[] json = new byte[len];
+			ByteBuffer src = buf.duplicate();
+			src.position(pos + 4);
+			src.get(json);
+			d.add(JsonUtils.fromJson(new String(json, StandardCharsets.UTF_8), IFeature.class));
+			pos += 4 + len;
+		}
+		return Collections.unmodifiableList(d);
+	}
+
+	/*
+	 * size of the model in bytes
+	 */
+	public int getSize() {
+		return buf.capacity();
+	}
+
+	/*
+	 * decodes the complete model, only meant for compatibility with components
+	 * that require a BMNModel
+	 */
+	public BMNModel toBMNModel() {
+		BMNModel model = new BMNModel();
+		model.dictionary = new Dictionary<>();
+		for (IFeature f : getDictionary()) {
+			model.dictionary.add(f);
+		}
+		boolean[][] table = new boolean[numRows][numColumns];
+		int[] frequencies = new int[numRows];
+		for (int row = 0; row < numRows; row++) {
+			frequencies[row] = getFrequency(row);
+			for (int col = 0; col < numColumns; col++) {
+				table[row][col] = isSet(row, col);
+			}
+		}
+		model.table = new Table(table, frequencies);
+		return model;
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.rsse.calls;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cc.kave.commons.model.naming.types.ITypeName;
+import cc.kave.commons.utils.io.TypeFileNaming;
+import cc.kave.rsse.calls.IModelStore;
+import cc.kave.rsse.calls.mining.Options;
+import cc.kave.rsse.calls.recs.bmn.BMNModel;
+import cc.kave.rsse.calls.recs.bmn.BMNModelStore;
+
+/**
+ * Stores {@link BMNModel}s in the memory-mappable format of the
+ * {@link MappedBMNModel}. The models are placed in the same folder as the ones
+ * of the {@link BMNModelStore}, so both stores can be used side by side and
+ * {@link BMNModelStore#clear()} removes both. Models are only opened on their
+ * first access, so the startup time does not depend on the number of models.
+ * 
+ * The store is thread-safe.
+ */
+public class MappedBMNModelStore implements IModelStore<BMNModel>, MappedBMNModelSource {
+
+	private static final String SUFFIX = ".bmnx";
+	private static final TypeFileNaming NAMING = new TypeFileNaming();
+
+	private final File baseDir;
+	private final Map<ITypeName, MappedBMNModel> models = new ConcurrentHashMap<>();
+
+	public MappedBMNModelStore(String dir, Options opts) {
+		baseDir = new File(dir, opts.toString());
+	}
+
+	private File file(ITypeName t) {
+		return new File(baseDir, NAMING.getRelativePath(t) + SUFFIX);
+	}
+
+	@Override
+	public void store(ITypeName t, BMNModel model) {
+		models.remove(t);
+		MappedBMNModel.write(model, file(t));
+	}
+
+	public void remove(ITypeName t) {
+		models.remove(t);
+		file(t).delete();
+	}
+
+	@Override
+	public boolean hasModel(ITypeName t) {
+		return models.containsKey(t) || file(t).exists();
+	}
+
+	@Override
+	public MappedBMNModel getMappedModel(ITypeName t) {
+		return models.computeIfAbsent(t, type -> MappedBMNModel.open(file(type)));
+	}
+
+	@Override
+	public BMNModel getModel(ITypeName t) {
+		return getMappedModel(t).toBMNModel();
+	}
+}
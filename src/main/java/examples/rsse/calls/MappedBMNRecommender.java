@@ -0,0 +1,237 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.rsse.calls;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import cc.kave.commons.model.events.completionevents.Context;
+import cc.kave.commons.model.naming.codeelements.IMemberName;
+import cc.kave.rsse.calls.AbstractCallsRecommender;
+import cc.kave.rsse.calls.UsageExtractor;
+import cc.kave.rsse.calls.mining.FeatureExtractor;
+import cc.kave.rsse.calls.mining.Options;
+import cc.kave.rsse.calls.model.features.CallParameterFeature;
+import cc.kave.rsse.calls.model.features.ClassContextFeature;
+import cc.kave.rsse.calls.model.features.DefinitionFeature;
+import cc.kave.rsse.calls.model.features.IFeature;
+import cc.kave.rsse.calls.model.features.MemberAccessFeature;
+import cc.kave.rsse.calls.model.features.MethodContextFeature;
+import cc.kave.rsse.calls.model.usages.IUsage;
+import cc.kave.rsse.calls.model.usages.MemberAccessType;
+import cc.kave.rsse.calls.recs.bmn.BMNRecommender;
+import cc.kave.rsse.calls.recs.bmn.QueryState;
+import cc.kave.rsse.calls.utils.ProposalHelper;
+
+/**
+ * Same algorithm as the {@link BMNRecommender}, but the columns are read
+ * directly from a {@link MappedBMNModel}, so no model has to be decoded, and
+ * the distances of 64 rows are computed at once. In contrast to
+ * the {@link BMNRecommender}, the recommender does not keep any state between
+ * queries and can be shared between threads.
+ */
+public class MappedBMNRecommender extends AbstractCallsRecommender<IUsage> {
+
+	private final FeatureExtractor featureExtractor;
+	private final MappedBMNModelSource modelStore;
+	private final Options opts;
+
+	private volatile int lastModelSize = -1;
+
+	public MappedBMNRecommender(FeatureExtractor featureExtractor, MappedBMNModelSource modelStore, Options opts) {
+		this.featureExtractor = featureExtractor;
+		this.modelStore = modelStore;
+		this.opts = opts;
+	}
+
+	@Override
+	public int getLastModelSize() {
+		return lastModelSize;
+	}
+
+	@Override
+	public Set<Pair<IMemberName, Double>> query(Context ctx) {
+		UsageExtractor ue = new UsageExtractor(ctx);
+		if (ue.hasQuery()) {
+			return query(ue.getQuery());
+		}
+		return new HashSet<>();
+	}
+
+	@Override
+	public Set<Pair<IMemberName, Double>> query(IUsage u) {
+		if (!modelStore.hasModel(u.getType())) {
+			return new HashSet<>();
+		}
+		MappedBMNModel model = modelStore.getMappedModel(u.getType());
+		lastModelSize = model.getSize();
+
+		QueryState[] queryRow = toQueryRow(model, featureExtractor.extract(u));
+
+		Set<Pair<IMemberName, Double>> res = ProposalHelper.createSortedSet();
+		for (Map.Entry<IMemberName, Double> e : query(model, queryRow).entrySet()) {
+			if (e.getValue() > opts.minProbability) {
+				res.add(Pair.of(e.getKey(), e.getValue()));
+			}
+		}
+		return res;
+	}
+
+	private QueryState[] toQueryRow(MappedBMNModel model, List<IFeature> features) {
+		Set<IFeature> present = new HashSet<>(features);
+		QueryState[] row = new QueryState[model.getNumColumns()];
+		for (int i = 0; i < row.length; i++) {
+			IFeature f = model.getFeature(i);
+			row[i] = getQueryState(f, present.contains(f), opts);
+		}
+		return row;
+	}
+
+	/*
+	 * The distances are computed for 64 rows at once. For every relevant column,
+	 * the mismatches of a block of rows are the column bits XOR the expected
+	 * value, and they are added to per-row counters that are stored bit-sliced
+	 * (plane p holds bit p of the distance of all 64 rows). The rows with the
+	 * smallest distance of a block can then be selected from the planes without
+	 * looking at individual rows.
+	 */
+	private static Map<IMemberName, Double> query(MappedBMNModel model, QueryState[] queryRow) {
+		int[] relevant = columnsIn(queryRow, EnumSet.of(QueryState.SET, QueryState.UNSET));
+		long[] expected = new long[relevant.length];
+		for (int i = 0; i < relevant.length; i++) {
+			// a mismatch for SET is a missing bit, for UNSET an existing one
+			expected[i] = queryRow[relevant[i]] == QueryState.SET ? -1L : 0L;
+		}
+
+		int numWords = model.getWordsPerColumn();
+		long[] planes = new long[Math.max(1, 32 - Integer.numberOfLeadingZeros(relevant.length))];
+		long[] nearest = new long[numWords];
+		int minDistance = Integer.MAX_VALUE;
+		for (int w = 0; w < numWords; w++) {
+			int rowsInWord = Math.min(64, model.getNumRows() - 64 * w);
+			long valid = rowsInWord == 64 ? -1L : (1L << rowsInWord) - 1;
+
+			Arrays.fill(planes, 0);
+			for (int i = 0; i < relevant.length; i++) {
+				long carry = (model.getColumnWord(relevant[i], w) ^ expected[i]) & valid;
+				for (int p = 0; carry != 0; p++) {
+					long overflow = planes[p] & carry;
+					planes[p] ^= carry;
+					carry = overflow;
+				}
+			}
+
+			// narrow down the rows, starting with the most significant bit
+			long candidates = valid;
+			for (int p = planes.length - 1; p >= 0; p--) {
+				long zeros = candidates & ~planes[p];
+				if (zeros != 0) {
+					candidates = zeros;
+				}
+			}
+			int row = Long.numberOfTrailingZeros(candidates);
+			int distance = 0;
+			for (int p = 0; p < planes.length; p++) {
+				distance |= (int) ((planes[p] >>> row) & 1) << p;
+			}
+
+			if (distance < minDistance) {
+				minDistance = distance;
+				Arrays.fill(nearest, 0, w, 0);
+			}
+			if (distance == minDistance) {
+				nearest[w] = candidates;
+			}
+		}
+
+		int total = sumFrequencies(model, nearest, -1);
+
+		Map<IMemberName, Double> res = new HashMap<>();
+		for (int col : columnsIn(queryRow, EnumSet.of(QueryState.TO_PROPOSE))) {
+			int count = sumFrequencies(model, nearest, col);
+			MemberAccessFeature maf = (MemberAccessFeature) model.getFeature(col);
+			res.put(maf.memberAccess.getMember(), count / (double) total);
+		}
+		return res;
+	}
+
+	/*
+	 * accumulated frequency of all nearest rows, optionally restricted to the
+	 * rows that have a column set
+	 */
+	private static int sumFrequencies(MappedBMNModel model, long[] nearest, int column) {
+		int sum = 0;
+		for (int w = 0; w < nearest.length; w++) {
+			long rows = column == -1 ? nearest[w] : nearest[w] & model.getColumnWord(column, w);
+			// rows are weighted by their frequency, so the set bits are visited
+			for (; rows != 0; rows &= rows - 1) {
+				sum += model.getFrequency(64 * w + Long.numberOfTrailingZeros(rows));
+			}
+		}
+		return sum;
+	}
+
+	private static int[] columnsIn(QueryState[] queryRow, Set<QueryState> states) {
+		int num = 0;
+		for (QueryState s : queryRow) {
+			if (states.contains(s)) {
+				num++;
+			}
+		}
+		int[] cols = new int[num];
+		int i = 0;
+		for (int col = 0; col < queryRow.length; col++) {
+			if (states.contains(queryRow[col])) {
+				cols[i++] = col;
+			}
+		}
+		return cols;
+	}
+	/*
+	 * identical to the (protected) BMNRecommender.getQueryState
+	 */
+	private static QueryState getQueryState(IFeature f, boolean isSet, Options opts) {
+		if (f instanceof ClassContextFeature && opts.useClassCtx()) {
+			return isSet ? QueryState.SET : QueryState.UNSET;
+		}
+		if (f instanceof MethodContextFeature && opts.useMethodCtx()) {
+			return isSet ? QueryState.SET : QueryState.UNSET;
+		}
+		if (f instanceof DefinitionFeature && opts.useDef()) {
+			return isSet ? QueryState.SET : QueryState.UNSET;
+		}
+		if (f instanceof CallParameterFeature && opts.useParams()) {
+			return isSet ? QueryState.SET : QueryState.UNSET;
+		}
+		if (f instanceof MemberAccessFeature) {
+			MemberAccessType type = ((MemberAccessFeature) f).memberAccess.getType();
+			if (type == MemberAccessType.METHOD_CALL && opts.useCalls()) {
+				return isSet ? QueryState.SET : QueryState.TO_PROPOSE;
+			}
+			if (type == MemberAccessType.MEMBER_REFERENCE && opts.useMembers()) {
+				return isSet ? QueryState.SET : QueryState.TO_PROPOSE;
+			}
+		}
+		return QueryState.IGNORE;
+	}
+}
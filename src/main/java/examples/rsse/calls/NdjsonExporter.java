@@ -0,0 +1,362 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.rsse.calls;
+
+import static cc.kave.commons.utils.io.Logger.log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import cc.kave.commons.assertions.Asserts;
+import cc.kave.commons.model.naming.types.ITypeName;
+import cc.kave.commons.utils.io.json.JsonUtils;
+import cc.kave.rsse.calls.IModelStore;
+import cc.kave.rsse.calls.mining.Options;
+import cc.kave.rsse.calls.model.features.IFeature;
+import cc.kave.rsse.calls.model.usages.IUsage;
+import cc.kave.rsse.calls.recs.bmn.BMNModel;
+import cc.kave.rsse.calls.recs.bmn.BMNModelStore;
+import examples.ProgressReporter;
+
+/**
+ * Exports mined usages and {@link BMNModel}s as newline-delimited Json, so they
+ * can be analyzed without the KaVE libraries. Every usage is exported as one
+ * line that contains its Json (as stored by the {@link ShardedUsageSorter}).
+ * Every model is exported as one line in the form
+ * 
+ * <pre>
+ * {"type":..., "dictionary":[feature, ...], "frequencies":[n, ...], "rows":[[featureIdx, ...], ...]}
+ * </pre>
+ * 
+ * in which the rows contain the indices of the features that are set in the
+ * respective row of the BMN table.
+ * 
+ * The lines are written type by type into chunk files of a limited size, which
+ * are optionally compressed. In compressed chunks, every type is written as a
+ * separate gzip member (gzip tools and {@link java.util.zip.GZIPInputStream}
+ * read them as one stream). The completely written types are recorded in a
+ * progress file next to the chunks at checkpoints, i.e., every 1000 types or
+ * 64 MB, before a new chunk is started, and at the end. An aborted
+ * export is resumed at the last checkpoint: the part of the last chunk that has
+ * been written after it is discarded and the recorded types are skipped.
+ */
+public class NdjsonExporter {
+
+	private static final long DEFAULT_CHUNK_SIZE = 512L * 1024 * 1024;
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final long READING_BUDGET = 16L * 1024 * 1024;
+	private static final String PROGRESS_FILE = "export.progress";
+	private static final long CHECKPOINT_SIZE = 64L * 1024 * 1024;
+	private static final int CHECKPOINT_TYPES = 1000;
+
+	private final File dirOut;
+	private final boolean compress;
+	private final long chunkSize;
+
+	public NdjsonExporter(String dirOut, boolean compress) {
+		this(dirOut, compress, DEFAULT_CHUNK_SIZE);
+	}
+
+	public NdjsonExporter(String dirOut, boolean compress, long chunkSize) {
+		Asserts.assertTrue(chunkSize > 0);
+		this.dirOut = new File(dirOut);
+		this.compress = compress;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Exports the sorted usages and the mined BMN models of the given options
+	 * (e.g., from the folders that have been used for the {@link BMNMining}).
+	 */
+	public static void run(Options opts, String dirSortedUsages, String dirBmnModels, String dirOut,
+			boolean compress) {
+		NdjsonExporter exporter = new NdjsonExporter(dirOut, compress);
+		ShardedUsageSorter sorter = new ShardedUsageSorter(dirSortedUsages, opts, READING_BUDGET);
+		exporter.exportUsages(sorter);
+		exporter.exportModels(sorter.registeredTypes(), new BMNModelStore(dirBmnModels, opts));
+		log("done");
+	}
+
+	public void exportUsages(ShardedUsageSorter sorter) {
+		export("usages", sorter.registeredTypes(), (t, out) -> {
+			int numLines = 0;
+			for (IUsage u : sorter.read(t)) {
+				out.write(JsonUtils.toJson(u, IUsage.class));
+				out.write('\n');
+				numLines++;
+			}
+			return numLines;
+		});
+	}
+
+	/**
+	 * Exports the models of all given types that exist in the store.
+	 */
+	public void exportModels(Collection<ITypeName> types, IModelStore<BMNModel> store) {
+		export("models", types, (t, out) -> {
+			if (!store.hasModel(t)) {
+				return 0;
+			}
+			writeModel(t, store.getModel(t), out);
+			return 1;
+		});
+	}
+
+	private static void writeModel(ITypeName t, BMNModel model, Writer out) throws IOException {
+		out.write("{\"type\":");
+		out.write(JsonUtils.toJson(t, ITypeName.class));
+		out.write(",\"dictionary\":[");
+		for (int i = 0; i < model.dictionary.size(); i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+			out.write(JsonUtils.toJson(model.dictionary.getEntry(i), IFeature.class));
+		}
+		out.write("],\"frequencies\":[");
+		int[] freqs = model.table.getFrequencies();
+		for (int r = 0; r < freqs.length; r++) {
+			if (r > 0) {
+				out.write(',');
+			}
+			out.write(Integer.toString(freqs[r]));
+		}
+		out.write("],\"rows\":[");
+		boolean[][] rows = model.table.getBMNTable();
+		for (int r = 0; r < rows.length; r++) {
+			out.write(r > 0 ? ",[" : "[");
+			boolean isFirst = true;
+			for (int c = 0; c < rows[r].length; c++) {
+				if (rows[r][c]) {
+					if (!isFirst) {
+						out.write(',');
+					}
+					out.write(Integer.toString(c));
+					isFirst = false;
+				}
+			}
+			out.write(']');
+		}
+		out.write("]}\n");
+	}
+
+	private interface TypeExport {
+		/**
+		 * @return the number of written lines
+		 */
+		int write(ITypeName t, Writer out) throws IOException;
+	}
+
+	private void export(String name, Collection<ITypeName> types, TypeExport typeExport) {
+		File dir = new File(dirOut, name);
+		dir.mkdirs();
+		ExportProgress done = new ExportProgress(dir);
+		done.restore();
+		if (!done.types.isEmpty()) {
+			log("resuming export of %s (%d types have already been exported)", name, done.types.size());
+		}
+
+		int chunk = done.chunk;
+		File chunkFile = chunkFile(dir, name, chunk);
+		FileOutputStream fileOut = null;
+		CountingOutputStream out = null;
+		long chunkStart = 0;
+		long checkpointBytes = 0;
+		ProgressReporter progress = new ProgressReporter("exporting " + name, "types", types.size(), "lines");
+		LongAdder numLines = progress.counter("lines");
+		try {
+			for (ITypeName t : types) {
+				if (done.types.contains(t)) {
+					progress.step();
+					continue;
+				}
+				if (out != null && chunkStart + out.getByteCount() >= chunkSize) {
+					checkpoint(out, fileOut, done);
+					out.close();
+					out = null;
+					chunkFile = chunkFile(dir, name, ++chunk);
+				}
+				if (out == null) {
+					fileOut = new FileOutputStream(chunkFile, true);
+					chunkStart = chunkFile.length();
+					out = new CountingOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+					checkpointBytes = 0;
+				}
+
+				// closing the writer ends the gzip member and releases its native
+				// deflater, the shield keeps the chunk open
+				OutputStream typeOut = new CloseShieldOutputStream(out);
+				if (compress) {
+					typeOut = new GZIPOutputStream(typeOut, BUFFER_SIZE / 16);
+				}
+				try (Writer w = new OutputStreamWriter(typeOut, StandardCharsets.UTF_8)) {
+					numLines.add(typeExport.write(t, w));
+				}
+				// every type ends a gzip member, so the chunk can be cut after any type
+				done.add(t, chunk, chunkStart + out.getByteCount());
+				if (done.numPending() >= CHECKPOINT_TYPES || out.getByteCount() - checkpointBytes >= CHECKPOINT_SIZE) {
+					checkpoint(out, fileOut, done);
+					checkpointBytes = out.getByteCount();
+				}
+				progress.step();
+			}
+			if (out != null) {
+				checkpoint(out, fileOut, done);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			progress.close();
+			try {
+				if (out != null) {
+					out.close();
+				}
+				done.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		log("exported %d %s to %s", numLines.sum(), name, dir);
+	}
+
+	/*
+	 * the types are only recorded once all their lines are durably stored, so a
+	 * restored chunk length never points behind the actual data
+	 */
+	private static void checkpoint(OutputStream out, FileOutputStream fileOut, ExportProgress done)
+			throws IOException {
+		if (done.numPending() == 0) {
+			return;
+		}
+		out.flush();
+		fileOut.getChannel().force(false);
+		done.record();
+	}
+
+	private File chunkFile(File dir, String name, int chunk) {
+		return new File(dir, String.format("%s-%05d.ndjson%s", name, chunk, compress ? ".gz" : ""));
+	}
+
+	/**
+	 * Keeps track of the completely exported types. Every line of the progress
+	 * file contains the chunk, the length of the chunk after the type has been
+	 * written, and the type. The lines are buffered and only written at a
+	 * checkpoint.
+	 */
+	private class ExportProgress {
+
+		private final File dir;
+		private final File file;
+		private final Set<ITypeName> types = new HashSet<>();
+		private int chunk = 0;
+		private long length = 0;
+		private final List<ITypeName> pending = new ArrayList<>();
+		private final StringBuilder pendingLines = new StringBuilder();
+		private Writer out;
+
+		private ExportProgress(File dir) {
+			this.dir = dir;
+			this.file = new File(dir, PROGRESS_FILE);
+		}
+
+		private void restore() {
+			try {
+				List<String> lines = new ArrayList<>();
+				if (file.exists()) {
+					for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+						String[] parts = line.split("\t", 3);
+						int c;
+						long l;
+						ITypeName t;
+						try {
+							c = Integer.parseInt(parts[0]);
+							l = Long.parseLong(parts[1]);
+							t = JsonUtils.fromJson(parts[2], ITypeName.class);
+						} catch (RuntimeException e) {
+							// incomplete last line of an aborted export
+							break;
+						}
+						chunk = c;
+						length = l;
+						types.add(t);
+						lines.add(line);
+					}
+				}
+				Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+
+				// discard everything that has been written after the last recorded type
+				File[] chunks = dir.listFiles((d, n) -> n.endsWith(compress ? ".ndjson.gz" : ".ndjson"));
+				for (File f : chunks) {
+					int c = Integer.parseInt(f.getName().replaceAll(".*-(\\d+)\\.ndjson.*", "$1"));
+					if (c > chunk) {
+						Files.delete(f.toPath());
+					} else if (c == chunk) {
+						try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+							raf.setLength(length);
+						}
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private void add(ITypeName t, int chunk, long length) {
+			pendingLines.append(chunk).append('\t').append(length).append('\t');
+			pendingLines.append(JsonUtils.toJson(t, ITypeName.class)).append('\n');
+			pending.add(t);
+		}
+
+		private int numPending() {
+			return pending.size();
+		}
+
+		private void record() throws IOException {
+			if (out == null) {
+				out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+			}
+			out.write(pendingLines.toString());
+			out.flush();
+			types.addAll(pending);
+			pending.clear();
+			pendingLines.setLength(0);
+		}
+
+		private void close() throws IOException {
+			if (out != null) {
+				out.close();
+				out = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,374 @@
+/**
+ * Copyright 2018 University of Zurich
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package examples.rsse.calls;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+
+import cc.kave.commons.assertions.Asserts;
+import cc.kave.commons.model.naming.types.ITypeName;
+import cc.kave.commons.utils.io.json.JsonUtils;
+import cc.kave.rsse.calls.UsageSorter;
+import cc.kave.rsse.calls.mining.Options;
+import cc.kave.rsse.calls.model.usages.IUsage;
+
+/**
+ * Alternative to the {@link UsageSorter} that does not write to disk at every
+ * zip boundary. Serialized usages are buffered in off-heap segments that are
+ * sharded by type. Only when the memory budget is exhausted, all buffers are
+ * spilled into a single run file, in which the usages are grouped by type. On
+ * {@link #read(ITypeName)}, the blocks of a type are merged from all runs in
+ * the order in which they have been stored.
+ * 
+ * The sorter is not meant to be used concurrently while usages are stored.
+ * After {@link #flush()}, reads are thread-safe.
+ */
+public class ShardedUsageSorter {
+
+	private static final String MANIFEST = "manifest.bin";
+	private static final int NUM_SHARDS = 16;
+	private static final int MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+	private final File baseDir;
+	private final long memoryBudget;
+	private final int segmentSize;
+
+	private final Map<ITypeName, Integer> typeIds = new HashMap<>();
+	private final List<ITypeName> types = new ArrayList<>();
+	private final List<Integer> counts = new ArrayList<>();
+
+	private final List<List<ByteBuffer>> shards = new ArrayList<>();
+	// direct memory is only released by the garbage collector, so all segments are
+	// reused after a spill and the staging buffer of the spills is kept
+	private final List<ByteBuffer> freeSegments = new ArrayList<>();
+	// allocated by the first spill, one segment of the budget is reserved for it
+	private ByteBuffer staging;
+	// bytes of the segments in use, and of all direct buffers (in use or free)
+	private long allocated = 0;
+	private long retained = 0;
+	private boolean isDirty = false;
+
+	// for each run, the position of the block of each type (typeId -> {offset,
+	// length})
+	private final List<Map<Integer, long[]>> runs = new ArrayList<>();
+
+	public ShardedUsageSorter(String dir, Options opts, long memoryBudget) {
+		this(new File(dir, opts.toString()), memoryBudget);
+	}
+
+	public ShardedUsageSorter(File baseDir, long memoryBudget) {
+		this.baseDir = baseDir;
+		this.memoryBudget = memoryBudget;
+		// every shard should be able to fill a few segments before a spill is required
+		segmentSize = (int) Math.min(MAX_SEGMENT_SIZE, memoryBudget / (4 * NUM_SHARDS));
+		Asserts.assertTrue(segmentSize >= 1024, "memory budget is too small");
+		for (int i = 0; i < NUM_SHARDS; i++) {
+			shards.add(new LinkedList<>());
+		}
+		if (new File(baseDir, MANIFEST).exists()) {
+			readManifest();
+		}
+	}
+
+	public synchronized void clear() {
+		try {
+			FileUtils.deleteDirectory(baseDir);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		typeIds.clear();
+		types.clear();
+		counts.clear();
+		runs.clear();
+		for (List<ByteBuffer> shard : shards) {
+			release(shard);
+		}
+		allocated = 0;
+		isDirty = false;
+	}
+
+	public synchronized void store(List<IUsage> usages) {
+		for (IUsage u : usages) {
+			ITypeName t = u.getType();
+			// same filter as in the UsageSorter
+			if (t.isArray() || t.isUnknown() || t.isDelegateType() || t.getAssembly().isLocalProject()) {
+				continue;
+			}
+			int typeId = idOf(t);
+			counts.set(typeId, counts.get(typeId) + 1);
+
+			byte[] json = JsonUtils.toJson(u, IUsage.class).getBytes(StandardCharsets.UTF_8);
+			ByteBuffer segment = segmentFor(typeId, 8 + json.length);
+			segment.putInt(typeId);
+			segment.putInt(json.length);
+			segment.put(json);
+			isDirty = true;
+		}
+	}
+
+	private int idOf(ITypeName t) {
+		Integer id = typeIds.get(t);
+		if (id == null) {
+			id = types.size();
+			typeIds.put(t, id);
+			types.add(t);
+			counts.add(0);
+		}
+		return id;
+	}
+
+	private ByteBuffer segmentFor(int typeId, int size) {
+		List<ByteBuffer> shard = shards.get(typeId % NUM_SHARDS);
+		if (!shard.isEmpty() && shard.get(shard.size() - 1).remaining() >= size) {
+			return shard.get(shard.size() - 1);
+		}
+		int segmentSize = Math.max(this.segmentSize, size);
+		if (allocated + segmentSize > memoryBudget - this.segmentSize) {
+			spill();
+			shard = shards.get(typeId % NUM_SHARDS);
+		}
+		ByteBuffer segment = takeFreeSegment(size);
+		if (segment == null) {
+			// free segments that are too small for this record are given up, so the
+			// retained segments stay within the budget
+			long reserved = staging == null ? this.segmentSize : 0;
+			while (!freeSegments.isEmpty() && retained + reserved + segmentSize > memoryBudget) {
+				retained -= freeSegments.remove(freeSegments.size() - 1).capacity();
+			}
+			segment = ByteBuffer.allocateDirect(segmentSize);
+			retained += segmentSize;
+		}
+		allocated += segment.capacity();
+		shard.add(segment);
+		return segment;
+	}
+
+	private ByteBuffer takeFreeSegment(int size) {
+		for (int i = freeSegments.size() - 1; i >= 0; i--) {
+			if (freeSegments.get(i).capacity() >= size) {
+				return freeSegments.remove(i);
+			}
+		}
+		return null;
+	}
+
+	private void release(List<ByteBuffer> shard) {
+		for (ByteBuffer segment : shard) {
+			segment.clear();
+			freeSegments.add(segment);
+		}
+		shard.clear();
+	}
+
+	/*
+	 * writes all buffered usages to disk, must be called before the usages are
+	 * read in a different process
+	 */
+	public synchronized void flush() {
+		if (isDirty) {
+			spill();
+		}
+		writeManifest();
+	}
+
+	private void spill() {
+		File runFile = runFile(runs.size());
+		Map<Integer, long[]> index = new HashMap<>();
+		baseDir.mkdirs();
+		if (staging == null) {
+			staging = ByteBuffer.allocateDirect(segmentSize);
+			retained += segmentSize;
+		}
+		staging.clear();
+		try (FileChannel out = new FileOutputStream(runFile).getChannel()) {
+			long offset = 0;
+			for (List<ByteBuffer> shard : shards) {
+				// group the records of the shard by type, keeping their order
+				Map<Integer, List<int[]>> records = new LinkedHashMap<>();
+				for (int segIdx = 0; segIdx < shard.size(); segIdx++) {
+					ByteBuffer seg = shard.get(segIdx);
+					int pos = 0;
+					while (pos < seg.position()) {
+						int typeId = seg.getInt(pos);
+						int len = seg.getInt(pos + 4);
+						List<int[]> recs = records.get(typeId);
+						if (recs == null) {
+							recs = new ArrayList<>();
+							records.put(typeId, recs);
+						}
+						// the length prefix is kept, the type id is implicit in the run
+						recs.add(new int[] { segIdx, pos + 4, 4 + len });
+						pos += 8 + len;
+					}
+				}
+				for (Map.Entry<Integer, List<int[]>> e : records.entrySet()) {
+					long start = offset;
+					for (int[] rec : e.getValue()) {
+						ByteBuffer src = shard.get(rec[0]).duplicate();
+						src.limit(rec[1] + rec[2]).position(rec[1]);
+						if (staging.remaining() < src.remaining()) {
+							writeFully(out, staging);
+						}
+						if (staging.remaining() < src.remaining()) {
+							// larger than the staging buffer, write directly
+							while (src.hasRemaining()) {
+								out.write(src);
+							}
+						} else {
+							staging.put(src);
+						}
+						offset += rec[2];
+					}
+					index.put(e.getKey(), new long[] { start, offset - start });
+				}
+				release(shard);
+			}
+			writeFully(out, staging);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		runs.add(index);
+		allocated = 0;
+		isDirty = false;
+	}
+
+	private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			out.write(buf);
+		}
+		buf.clear();
+	}
+
+	public synchronized Set<ITypeName> registeredTypes() {
+		return new LinkedHashSet<>(types);
+	}
+
+	public synchronized int getNumUsages(ITypeName t) {
+		Integer id = typeIds.get(t);
+		return id == null ? 0 : counts.get(id);
+	}
+
+	public List<IUsage> read(ITypeName t) {
+		Integer typeId;
+		List<Map<Integer, long[]>> runsCopy;
+		synchronized (this) {
+			if (isDirty) {
+				flush();
+			}
+			typeId = typeIds.get(t);
+			runsCopy = new ArrayList<>(runs);
+		}
+		List<IUsage> usages = new LinkedList<>();
+		if (typeId == null) {
+			return usages;
+		}
+		for (int run = 0; run < runsCopy.size(); run++) {
+			long[] block = runsCopy.get(run).get(typeId);
+			if (block == null) {
+				continue;
+			}
+			ByteBuffer buf = ByteBuffer.allocate((int) block[1]);
+			// positional reads, so concurrent readers do not interfere
+			try (FileChannel fc = new RandomAccessFile(runFile(run), "r").getChannel()) {
+				while (buf.hasRemaining()) {
+					if (fc.read(buf, block[0] + buf.position()) < 0) {
+						throw new IOException("unexpected end of run " + run);
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			buf.flip();
+			while (buf.hasRemaining()) {
+				byte[] json = new byte[buf.getInt()];
+				buf.get(json);
+				usages.add(JsonUtils.fromJson(new String(json, StandardCharsets.UTF_8), IUsage.class));
+			}
+		}
+		return usages;
+	}
+
+	private File runFile(int run) {
+		return new File(baseDir, String.format("run-%05d.bin", run));
+	}
+
+	private void writeManifest() {
+		baseDir.mkdirs();
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(new File(baseDir, MANIFEST))))) {
+			out.writeInt(types.size());
+			for (int i = 0; i < types.size(); i++) {
+				out.writeUTF(JsonUtils.toJson(types.get(i), ITypeName.class));
+				out.writeInt(counts.get(i));
+			}
+			out.writeInt(runs.size());
+			for (Map<Integer, long[]> index : runs) {
+				out.writeInt(index.size());
+				for (Map.Entry<Integer, long[]> e : index.entrySet()) {
+					out.writeInt(e.getKey());
+					out.writeLong(e.getValue()[0]);
+					out.writeLong(e.getValue()[1]);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void readManifest() {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(new File(baseDir, MANIFEST))))) {
+			int numTypes = in.readInt();
+			for (int i = 0; i < numTypes; i++) {
+				ITypeName t = JsonUtils.fromJson(in.readUTF(), ITypeName.class);
+				idOf(t);
+				counts.set(i, in.readInt());
+			}
+			int numRuns = in.readInt();
+			for (int r = 0; r < numRuns; r++) {
+				Map<Integer, long[]> index = new HashMap<>();
+				int numBlocks = in.readInt();
+				for (int b = 0; b < numBlocks; b++) {
+					index.put(in.readInt(), new long[] { in.readLong(), in.readLong() });
+				}
+				runs.add(index);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}